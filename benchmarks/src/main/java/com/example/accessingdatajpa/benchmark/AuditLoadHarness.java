@@ -0,0 +1,365 @@
+package com.example.accessingdatajpa.benchmark;
+
+import com.example.accessingdatajpa.AccessingDataJpaApplication;
+import com.example.accessingdatajpa.Address;
+import com.example.accessingdatajpa.Customer;
+import com.example.accessingdatajpa.CustomerRepository;
+import com.example.accessingdatajpa.audit.Qualification;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end cost of auditing a write. Boots the application on in-memory H2 once per audit mode,
+ * drives concurrent {@link CustomerRepository} inserts and updates, and reports write latency
+ * percentiles and throughput, plus the audit lag: the time from commit until the audit row is
+ * visible.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.example.accessingdatajpa.benchmark.AuditLoadHarness \
+ *     threads=8 warmup=10s duration=30s payload=wide listSize=10 updateRatio=0.8 modes=off,inline,async
+ * </pre>
+ * Any other {@code key=value} argument is passed on to Spring, e.g. {@code audit.writer.batch-size=500}.
+ */
+public final class AuditLoadHarness {
+
+    private static final String H2_URL = "jdbc:h2:mem:%s;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;"
+            + "INIT=CREATE DOMAIN IF NOT EXISTS jsonb AS VARCHAR";
+    private static final Duration LAG_TIMEOUT = Duration.ofSeconds(10);
+    private static final long PROBE_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * How writes are audited: not at all, diffed inline while flushing, or diffed after commit on the
+     * audit executor. Either way the rows are queued to the batch writer, so no mode includes writing
+     * the audit rows in the write latency; the lag shows how far they trail.
+     */
+    enum Mode {
+        OFF, INLINE, ASYNC
+    }
+
+    /**
+     * Shape of the customers written: scalars only, with addresses, or with every collection.
+     */
+    enum Payload {
+        FLAT, NESTED, WIDE
+    }
+
+    record Options(int threads, Duration warmup, Duration duration, List<Mode> modes, Payload payload,
+                   int listSize, double updateRatio, int customers, Map<String, String> springProperties) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String arg : args) {
+                String[] keyValue = arg.split("=", 2);
+                if (keyValue.length != 2) {
+                    throw new IllegalArgumentException("Expected key=value, got " + arg);
+                }
+                values.put(keyValue[0], keyValue[1]);
+            }
+            return new Options(
+                    Integer.parseInt(values.getOrDefault("threads", "8")),
+                    DurationStyle.detectAndParse(values.getOrDefault("warmup", "10s")),
+                    DurationStyle.detectAndParse(values.getOrDefault("duration", "30s")),
+                    Arrays.stream(values.getOrDefault("modes", "off,inline,async").split(","))
+                            .map(mode -> Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT)))
+                            .toList(),
+                    Payload.valueOf(values.getOrDefault("payload", "nested").toUpperCase(Locale.ROOT)),
+                    Integer.parseInt(values.getOrDefault("listSize", "10")),
+                    Double.parseDouble(values.getOrDefault("updateRatio", "0.8")),
+                    Integer.parseInt(values.getOrDefault("customers", "1000")),
+                    withoutOptions(values));
+        }
+
+        private static Map<String, String> withoutOptions(Map<String, String> values) {
+            Map<String, String> springProperties = new LinkedHashMap<>(values);
+            springProperties.keySet().removeAll(Set.of("threads", "warmup", "duration", "modes", "payload",
+                    "listSize", "updateRatio", "customers"));
+            return springProperties;
+        }
+    }
+
+    record Result(Mode mode, long writes, long errors, double seconds, Latencies latency, Latencies lag) {
+    }
+
+    private AuditLoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        List<Result> results = new ArrayList<>();
+        for (Mode mode : options.modes()) {
+            results.add(run(mode, options));
+        }
+        print(options, results);
+    }
+
+    static Result run(Mode mode, Options options) throws Exception {
+        try (ConfigurableApplicationContext context = boot(mode, options)) {
+            var repository = context.getBean(CustomerRepository.class);
+            var transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+            var jdbcTemplate = context.getBean(JdbcTemplate.class);
+            // The changelogs are PostgreSQL-only; without the history index every latest-flag update scans
+            jdbcTemplate.execute("create index if not exists ctrm_audit_log_v2_history_idx"
+                    + " on ctrm_audit_log_v2 (entity_name, entity_id, id)");
+
+            List<UUID> ids = new ArrayList<>(options.customers());
+            for (int i = 0; i < options.customers(); i++) {
+                ids.add(repository.save(customer(options)).getUuid());
+            }
+
+            long start = System.nanoTime();
+            long measureFrom = start + options.warmup().toNanos();
+            long end = measureFrom + options.duration().toNanos();
+            AtomicLong errors = new AtomicLong();
+
+            ExecutorService executor = Executors.newFixedThreadPool(options.threads() + 1);
+            try {
+                List<Future<Latencies>> writers = new ArrayList<>();
+                for (int i = 0; i < options.threads(); i++) {
+                    writers.add(executor.submit(() -> write(repository, transactionTemplate, ids, options,
+                            measureFrom, end, errors)));
+                }
+                Future<Latencies> probe = mode == Mode.OFF ? null
+                        : executor.submit(() -> probeLag(repository, transactionTemplate, jdbcTemplate, options,
+                        measureFrom, end));
+
+                Latencies latency = new Latencies();
+                for (Future<Latencies> writer : writers) {
+                    latency.addAll(writer.get());
+                }
+                Latencies lag = probe == null ? new Latencies() : probe.get();
+                return new Result(mode, latency.size(), errors.get(), options.duration().toNanos() / 1e9, latency,
+                        lag);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext boot(Mode mode, Options options) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("spring.datasource.url", H2_URL.formatted("audit-" + mode.name().toLowerCase(Locale.ROOT)));
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.datasource.hikari.maximum-pool-size", options.threads() + 10);
+        properties.put("spring.jpa.database-platform", "org.hibernate.dialect.H2Dialect");
+        properties.put("spring.jpa.hibernate.ddl-auto", "create-drop");
+        properties.put("spring.jpa.show-sql", false);
+        properties.put("logging.level.root", "WARN");
+        properties.put("audit.enabled", mode != Mode.OFF);
+        properties.put("audit.post-commit", mode == Mode.ASYNC);
+        // one audit per flush, whatever application.yml says, unless asked for on the command line
+        properties.put("audit.coalesce", coalesce(options));
+        properties.putAll(options.springProperties());
+
+        // Command line arguments, so they take precedence over application.yml
+        String[] args = properties.entrySet().stream()
+                .map(entry -> "--" + entry.getKey() + "=" + entry.getValue())
+                .toArray(String[]::new);
+        return new SpringApplication(AccessingDataJpaApplication.class).run(args);
+    }
+
+    private static Latencies write(CustomerRepository repository, TransactionTemplate transactionTemplate,
+                                   List<UUID> ids, Options options, long measureFrom, long end, AtomicLong errors) {
+        var random = ThreadLocalRandom.current();
+        Latencies latencies = new Latencies();
+        long begin;
+        while ((begin = System.nanoTime()) < end) {
+            try {
+                if (random.nextDouble() < options.updateRatio()) {
+                    UUID id = ids.get(random.nextInt(ids.size()));
+                    transactionTemplate.executeWithoutResult(status ->
+                            change(repository.findById(id).orElseThrow(), options, random));
+                } else {
+                    repository.save(customer(options));
+                }
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+                continue;
+            }
+            if (begin >= measureFrom) {
+                latencies.add(System.nanoTime() - begin);
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Updates a customer of its own at a steady pace and polls for each audit row.
+     */
+    private static Latencies probeLag(CustomerRepository repository, TransactionTemplate transactionTemplate,
+                                      JdbcTemplate jdbcTemplate, Options options, long measureFrom, long end) {
+        UUID id = repository.save(customer(options)).getUuid();
+        Latencies lag = new Latencies();
+        long rows = awaitRows(jdbcTemplate, id, 1, System.nanoTime());
+        int version = 0;
+        while (System.nanoTime() < end) {
+            String firstName = "probe-" + version++;
+            transactionTemplate.executeWithoutResult(status ->
+                    repository.findById(id).orElseThrow().setFirstName(firstName));
+            long committed = System.nanoTime();
+            long seen = awaitRows(jdbcTemplate, id, rows + 1, committed);
+            if (seen > rows && committed >= measureFrom) {
+                lag.add(System.nanoTime() - committed);
+            }
+            rows = seen;
+            LockSupport.parkNanos(PROBE_INTERVAL_NANOS);
+        }
+        return lag;
+    }
+
+    private static long awaitRows(JdbcTemplate jdbcTemplate, UUID id, long expected, long since) {
+        long rows;
+        while ((rows = countAudits(jdbcTemplate, id)) < expected && System.nanoTime() - since < LAG_TIMEOUT.toNanos()) {
+            LockSupport.parkNanos(PROBE_POLL_NANOS);
+        }
+        return rows;
+    }
+
+    private static long countAudits(JdbcTemplate jdbcTemplate, UUID id) {
+        Long rows = jdbcTemplate.queryForObject("select count(*) from ctrm_audit_log_v2"
+                + " where entity_name = 'Customer' and entity_id = ?", Long.class, id.toString());
+        return rows == null ? 0 : rows;
+    }
+
+    private static Customer customer(Options options) {
+        var random = ThreadLocalRandom.current();
+        var customer = new Customer();
+        customer.setTenantId("System");
+        customer.setFirstName("first-" + random.nextInt(1_000_000));
+        customer.setLastName("last-" + random.nextInt(1_000_000));
+        customer.setSalary(random.nextDouble(1000, 10_000));
+        if (options.payload() == Payload.FLAT) {
+            return customer;
+        }
+        customer.setAddress(new Address("street", "city"));
+        List<Address> addressList = new ArrayList<>(options.listSize());
+        for (int i = 0; i < options.listSize(); i++) {
+            addressList.add(new Address("street-" + i, "city-" + i));
+        }
+        customer.setAddressList(addressList);
+        if (options.payload() == Payload.NESTED) {
+            return customer;
+        }
+        Set<String> skillSet = new HashSet<>();
+        Map<String, Boolean> status = new HashMap<>();
+        for (int i = 0; i < options.listSize(); i++) {
+            skillSet.add("skill-" + i);
+            status.put("flag-" + i, i % 2 == 0);
+        }
+        customer.setSkillSet(skillSet);
+        customer.setStatus(status);
+        Map<Qualification, Boolean> qualification = new EnumMap<>(Qualification.class);
+        qualification.put(Qualification.BS, true);
+        customer.setQualification(qualification);
+        return customer;
+    }
+
+    /**
+     * Changes a scalar and, depending on the payload, one element of each collection.
+     */
+    private static void change(Customer customer, Options options, ThreadLocalRandom random) {
+        customer.setFirstName("first-" + random.nextInt(1_000_000));
+        if (options.payload() == Payload.FLAT || options.listSize() == 0) {
+            return;
+        }
+        int index = random.nextInt(options.listSize());
+        List<Address> addressList = new ArrayList<>(customer.getAddressList());
+        addressList.set(index, new Address("street-" + index, "city-" + random.nextInt(1_000_000)));
+        customer.setAddressList(addressList);
+        if (options.payload() == Payload.WIDE) {
+            Map<String, Boolean> status = new HashMap<>(customer.getStatus());
+            status.computeIfPresent("flag-" + index, (key, value) -> !value);
+            customer.setStatus(status);
+        }
+    }
+
+    private static void print(Options options, List<Result> results) {
+        System.out.printf("%nthreads=%d payload=%s listSize=%d updateRatio=%.2f duration=%s coalesce=%s%n",
+                options.threads(), options.payload().name().toLowerCase(Locale.ROOT), options.listSize(),
+                options.updateRatio(), options.duration(), coalesce(options));
+        System.out.printf("%-6s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n", "mode", "writes", "errors", "writes/s",
+                "p50 ms", "p99 ms", "p999 ms", "lag p50", "lag p99", "lag p999");
+        for (Result result : results) {
+            System.out.printf("%-6s %10d %8d %10.0f %9.3f %9.3f %9.3f %9s %9s %9s%n",
+                    result.mode().name().toLowerCase(Locale.ROOT), result.writes(), result.errors(),
+                    result.writes() / result.seconds(), millis(result.latency(), 0.5), millis(result.latency(), 0.99),
+                    millis(result.latency(), 0.999), lag(result.lag(), 0.5), lag(result.lag(), 0.99),
+                    lag(result.lag(), 0.999));
+        }
+    }
+
+    private static String coalesce(Options options) {
+        return options.springProperties().getOrDefault("audit.coalesce", "false");
+    }
+
+    private static double millis(Latencies latencies, double quantile) {
+        return latencies.percentile(quantile) / 1e6;
+    }
+
+    private static String lag(Latencies lag, double quantile) {
+        return lag.size() == 0 ? "-" : "%.3f".formatted(millis(lag, quantile));
+    }
+
+    /**
+     * Recorded nanosecond latencies, kept in full so percentiles are exact.
+     */
+    static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+        private boolean sorted;
+
+        void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+            sorted = false;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long percentile(double quantile) {
+            if (size == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+            return values[(int) Math.max(0, Math.ceil(quantile * size) - 1)];
+        }
+    }
+}
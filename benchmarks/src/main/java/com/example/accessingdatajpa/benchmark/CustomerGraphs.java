@@ -0,0 +1,82 @@
+package com.example.accessingdatajpa.benchmark;
+
+import com.example.accessingdatajpa.Address;
+import com.example.accessingdatajpa.audit.Qualification;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Builds {@link ProfiledCustomer} graphs for the benchmarks. Two graphs of the same size share every
+ * value except the ones changed by {@code changeRatio}, so a pair of them diffs like a real update.
+ */
+public final class CustomerGraphs {
+
+    private static final UUID CUSTOMER_UUID = UUID.fromString("3f1c1f8e-7a53-4a8c-9a57-0c1f4c0e2b11");
+    private static final LocalDateTime BIRTHDAY = LocalDateTime.of(1990, 1, 1, 0, 0);
+    private static final int PROFILE_GROUP_SIZE = 10;
+
+    private CustomerGraphs() {
+    }
+
+    /**
+     * Builds a customer with {@code size} elements in each of its address list, skill set, status map
+     * and profile, changing each scalar and element with probability {@code changeRatio}.
+     */
+    public static ProfiledCustomer create(int size, double changeRatio, long seed) {
+        var random = new SplittableRandom(seed);
+        var customer = new ProfiledCustomer();
+        customer.setUuid(CUSTOMER_UUID);
+        customer.setTenantId("System");
+        customer.setBirthday(BIRTHDAY);
+        customer.setFirstName(changed(random, changeRatio) ? "First'" : "First");
+        customer.setLastName(changed(random, changeRatio) ? "Last'" : "Last");
+        customer.setSalary(changed(random, changeRatio) ? 2000.0 : 1000.0);
+        customer.setAddress(address(0, changed(random, changeRatio)));
+
+        List<Address> addressList = new ArrayList<>(size);
+        Set<String> skillSet = new HashSet<>();
+        Map<String, Boolean> status = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            addressList.add(address(i, changed(random, changeRatio)));
+            skillSet.add(changed(random, changeRatio) ? "skill-" + i + "'" : "skill-" + i);
+            status.put("flag-" + i, (i % 2 == 0) != changed(random, changeRatio));
+        }
+        customer.setAddressList(addressList);
+        customer.setSkillSet(skillSet);
+        customer.setStatus(status);
+
+        Map<Qualification, Boolean> qualification = new EnumMap<>(Qualification.class);
+        for (Qualification value : Qualification.values()) {
+            qualification.put(value, !changed(random, changeRatio));
+        }
+        customer.setQualification(qualification);
+
+        Map<String, Map<String, Object>> profile = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String group = "group-" + i / PROFILE_GROUP_SIZE;
+            Object value = i % 2 == 0 ? "value-" + i : (Object) i;
+            profile.computeIfAbsent(group, key -> new LinkedHashMap<>())
+                    .put("key-" + i, changed(random, changeRatio) ? value + "'" : value);
+        }
+        customer.setProfile(profile);
+        return customer;
+    }
+
+    private static Address address(int index, boolean changed) {
+        return new Address("street-" + index, changed ? "city-" + index + "'" : "city-" + index);
+    }
+
+    private static boolean changed(SplittableRandom random, double changeRatio) {
+        return random.nextDouble() < changeRatio;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.accessingdatajpa.benchmark;
+
+import com.example.accessingdatajpa.audit.DeepObjectComparator;
+import com.example.accessingdatajpa.audit.ObjectDiffUtil;
+import com.example.accessingdatajpa.audit.ObjectFlattener;
+import com.example.accessingdatajpa.audit.OptimizedFlattenedJsonDiffUtil;
+import com.example.accessingdatajpa.audit.StructuralDiffer;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the flatten and diff engines on a pair of customer graphs. Run with
+ * {@code java -jar target/benchmarks.jar DiffEngineBenchmark -prof gc} to also get the allocation
+ * rate; narrow the matrix with e.g. {@code -p listSize=1000 -p changeRatio=0.1}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffEngineBenchmark {
+
+    /**
+     * Elements in each collection of the graph: address list, skill set, status map and profile.
+     */
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int listSize;
+
+    /**
+     * Probability of each scalar and element of the new graph differing from the old one.
+     */
+    @Param({"0.0", "0.01", "0.1", "0.5", "1.0"})
+    public double changeRatio;
+
+    private ProfiledCustomer oldCustomer;
+    private ProfiledCustomer newCustomer;
+
+    @Setup
+    public void setUp() {
+        oldCustomer = CustomerGraphs.create(listSize, 0, 42);
+        newCustomer = CustomerGraphs.create(listSize, changeRatio, 42);
+        // ObjectFlattener caches fields per class; keep the first lookup out of the measurement
+        ObjectFlattener.flatten(oldCustomer, "");
+    }
+
+    @Benchmark
+    public Map<String, Object> flatten() {
+        return ObjectFlattener.flatten(newCustomer, "");
+    }
+
+    /**
+     * The engine update audits used before {@link StructuralDiffer}: flatten both sides, then
+     * {@link Maps#difference}.
+     */
+    @Benchmark
+    public MapDifference<String, Object> flattenMapsDifference() {
+        return Maps.difference(ObjectFlattener.flatten(oldCustomer, ""), ObjectFlattener.flatten(newCustomer, ""));
+    }
+
+    /**
+     * The engine behind update audits: one walk over both graphs, reporting what
+     * {@link #flattenMapsDifference()} would.
+     */
+    @Benchmark
+    public Map<String, Object> structuralDiff() {
+        return StructuralDiffer.diff("customer", oldCustomer, newCustomer);
+    }
+
+    @Benchmark
+    public Map<String, Object> objectDiffUtil() throws Exception {
+        return ObjectDiffUtil.getDifferences(oldCustomer, newCustomer);
+    }
+
+    @Benchmark
+    public Map<String, Object[]> deepObjectComparator() {
+        return DeepObjectComparator.compareObjects(oldCustomer, newCustomer);
+    }
+
+    /**
+     * Includes the flattening it needs as input, so it compares end to end with the other engines.
+     */
+    @Benchmark
+    public Map<String, Object> optimizedFlattenedJsonDiff() {
+        return OptimizedFlattenedJsonDiffUtil.getDifferences(ObjectFlattener.flatten(oldCustomer, ""),
+                ObjectFlattener.flatten(newCustomer, ""));
+    }
+}
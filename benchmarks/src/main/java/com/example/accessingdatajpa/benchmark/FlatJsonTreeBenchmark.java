@@ -0,0 +1,56 @@
+package com.example.accessingdatajpa.benchmark;
+
+import com.example.accessingdatajpa.audit.ObjectFlattener;
+import com.example.accessingdatajpa.audit.OptimizedFlattenedJsonDiffUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the JSON tree {@link OptimizedFlattenedJsonDiffUtil} diffs from a flattened customer, with
+ * the direct builder and with the JsonPath one it replaced. A customer graph flattens to
+ * {@code 5 * listSize + 7} keys, so the sizes below are about 100, 1,000 and 10,000 keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlatJsonTreeBenchmark {
+
+    @Param({"20", "200", "2000"})
+    public int listSize;
+
+    private Map<String, Object> flatMap;
+
+    @Setup
+    public void setUp() {
+        flatMap = ObjectFlattener.flatten(CustomerGraphs.create(listSize, 0, 42), "");
+        if (!OptimizedFlattenedJsonDiffUtil.buildJsonFromFlat(flatMap).equals(JsonPathTreeBuilder.buildJsonFromFlat(flatMap))) {
+            throw new IllegalStateException("The builders disagree on " + listSize + " elements");
+        }
+    }
+
+    @Benchmark
+    public JsonNode direct() {
+        return OptimizedFlattenedJsonDiffUtil.buildJsonFromFlat(flatMap);
+    }
+
+    @Benchmark
+    public JsonNode jsonPath() {
+        return JsonPathTreeBuilder.buildJsonFromFlat(flatMap);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.accessingdatajpa.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.Option;
+import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * How {@code OptimizedFlattenedJsonDiffUtil.buildJsonFromFlat} built its tree before it descended the
+ * tree directly, kept as the baseline of {@link FlatJsonTreeBenchmark}: one {@code JsonPath.set} per
+ * key, and when that throws because a parent is missing, every parent path is re-read from the root
+ * and created before setting again. Unlike the current builder it fails on a key below a plain value.
+ */
+final class JsonPathTreeBuilder {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Configuration JSONPATH_CONFIG = Configuration.builder()
+            .jsonProvider(new JacksonJsonNodeJsonProvider())
+            .mappingProvider(new JacksonMappingProvider())
+            .options(EnumSet.of(Option.DEFAULT_PATH_LEAF_TO_NULL))
+            .build();
+
+    private JsonPathTreeBuilder() {
+    }
+
+    static JsonNode buildJsonFromFlat(Map<String, Object> flatMap) {
+        ObjectNode root = objectMapper.createObjectNode();
+        DocumentContext context = JsonPath.using(JSONPATH_CONFIG).parse(root);
+
+        for (Map.Entry<String, Object> entry : flatMap.entrySet()) {
+            String[] segments = entry.getKey().split("\\.");
+            String path = jsonPath(segments, segments.length);
+            Object value = entry.getValue();
+            Object json = value == null || value instanceof Number || value instanceof Boolean ? value : value.toString();
+
+            try {
+                context.set(path, json);
+            } catch (Exception e) {
+                createParentStructures(context, segments);
+                context.set(path, json);
+            }
+        }
+
+        return context.json();
+    }
+
+    private static void createParentStructures(DocumentContext context, String[] segments) {
+        for (int i = 1; i < segments.length; i++) {
+            String parentPath = jsonPath(segments, i);
+            boolean array = isIndex(segments[i]);
+
+            JsonNode node;
+            try {
+                node = context.read(parentPath);
+            } catch (Exception e) {
+                node = null;
+            }
+            // A missing leaf reads as a NullNode
+            if (node == null || node.isNull() || node.isArray() != array) {
+                context.set(parentPath, array ? objectMapper.createArrayNode() : objectMapper.createObjectNode());
+            }
+
+            if (array) {
+                ArrayNode arrayNode = context.read(parentPath);
+                int index = Integer.parseInt(segments[i]);
+                while (arrayNode.size() <= index) {
+                    arrayNode.addObject();
+                }
+            }
+        }
+    }
+
+    private static String jsonPath(String[] segments, int length) {
+        StringBuilder path = new StringBuilder("$");
+        for (int i = 0; i < length; i++) {
+            if (isIndex(segments[i])) {
+                path.append('[').append(segments[i]).append(']');
+            } else {
+                path.append("['").append(segments[i]).append("']");
+            }
+        }
+        return path.toString();
+    }
+
+    private static boolean isIndex(String segment) {
+        return segment.matches("[0-9]+");
+    }
+}
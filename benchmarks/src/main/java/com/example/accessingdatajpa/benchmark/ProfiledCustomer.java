@@ -0,0 +1,16 @@
+package com.example.accessingdatajpa.benchmark;
+
+import com.example.accessingdatajpa.CustomerBase;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+
+/**
+ * {@link CustomerBase} with a map of maps, the one shape the entity itself does not have.
+ */
+@Getter
+@Setter
+public class ProfiledCustomer extends CustomerBase {
+    private Map<String, Map<String, Object>> profile;
+}
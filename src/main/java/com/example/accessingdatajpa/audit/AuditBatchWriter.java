@@ -0,0 +1,617 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import com.example.accessingdatajpa.audit.model.AuditLog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.taomish.utils.JsonUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Drains audit messages from a bounded in-memory queue and writes them to
+ * {@code ctrm_audit_log_v2} as multi-row JDBC batches.
+ * <p>
+ * A batch is flushed once it reaches {@code audit.writer.batch-size} rows or
+ * {@code audit.writer.linger} has elapsed since its first message, whichever comes first.
+ * Every batch is written in its own transaction so it never joins the caller's, by the writer thread
+ * only. On PostgreSQL, batches of at least {@code audit.writer.copy-threshold} rows are streamed with
+ * {@code COPY} instead.
+ * <p>
+ * With {@code audit.spool.enabled} messages are appended to an {@link AuditSpool} instead of the
+ * queue and replayed from there in order. Batches that fail because the database is unavailable
+ * stay in the spool and are retried with backoff, so an outage delays audits without losing them.
+ */
+@Slf4j
+@Component
+public class AuditBatchWriter {
+
+    static final String TABLE = "ctrm_audit_log_v2";
+    /**
+     * Columns written for every row, in order.
+     */
+    static final List<String> COLUMNS = List.of("entity_name", "entity_id", "table_name", "latest", "action",
+            "parent_id", "tenant_id", "difference_list", "snapshot", "created_timestamp");
+    /**
+     * Columns added by opt-in migrations of {@code db/changelog/audit}; they are left out of the writes
+     * until the table has them.
+     */
+    static final Set<String> OPTIONAL_COLUMNS = Set.of("tenant_id", "snapshot");
+    private static final Set<String> JSON_COLUMNS = Set.of("difference_list", "snapshot");
+    static final String RETIRE_LATEST_SQL = "update " + TABLE + " set latest = false " +
+            "where entity_name = ? and entity_id = ? and latest = true";
+    static final String RETIRE_RECENT_LATEST_SQL = RETIRE_LATEST_SQL + " and created_timestamp >= ?";
+    /**
+     * Transaction-scoped advisory locks on the entities of a batch, taken in array order. The first
+     * key ("AUDT") keeps audit locks apart from other advisory lock users.
+     */
+    static final String LOCK_ENTITIES_SQL = "select pg_advisory_xact_lock(1096107092, k) from unnest(?) k";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AuditExecutor auditExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final AuditProperties.Writer properties;
+    private final AuditProperties.Spool spoolProperties;
+    private final AuditProperties.Partitioning partitioning;
+    private final AuditMetrics auditMetrics;
+    private final BlockingQueue<Queued> queue;
+    private final ObjectMapper objectMapper = JsonUtils.buildObjectMapper();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running;
+    private Thread worker;
+    private AuditSpool spool;
+    private volatile Boolean postgres;
+    private volatile List<String> columns;
+
+    public AuditBatchWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                            AuditProperties auditProperties, AuditExecutor auditExecutor, AuditMetrics auditMetrics) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.auditExecutor = auditExecutor;
+        this.auditMetrics = auditMetrics;
+        this.properties = auditProperties.getWriter();
+        this.spoolProperties = auditProperties.getSpool();
+        this.partitioning = auditProperties.getPartitioning();
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (spoolProperties.isEnabled()) {
+            spool = new AuditSpool(spoolProperties.getDirectory(), (int) spoolProperties.getSegmentSize().toBytes(),
+                    spoolProperties.isFsync(), objectMapper);
+        }
+        auditMetrics.gauge("audit.writer.queue.depth", "Audits waiting in the writer queue", queue, BlockingQueue::size);
+        auditMetrics.gauge("audit.spool.pending.bytes", "Spooled audit bytes not yet written", this,
+                AuditBatchWriter::getSpooledBytes);
+        running = true;
+        worker = new Thread(spool != null ? this::replayLoop : this::drainLoop, "audit-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        if (spool != null) {
+            spoolQueued();
+            spool.close();
+        }
+    }
+
+    /**
+     * Moves the messages that fell back to the queue into the spool, behind everything spooled before
+     * them, so they are replayed after the restart instead of being lost with the queue.
+     */
+    private void spoolQueued() {
+        List<Queued> left = new ArrayList<>();
+        queue.drainTo(left);
+        int lost = 0;
+        for (Queued queued : left) {
+            try {
+                spool.append(queued.message());
+            } catch (IOException e) {
+                lost++;
+                auditMetrics.error("shutdown", queued.message().getEntity(), queued.message().getTenantId());
+            }
+        }
+        if (lost > 0) {
+            log.error("Lost {} of {} audit messages queued in memory at shutdown, the spool refused them", lost,
+                    left.size());
+        }
+    }
+
+    /**
+     * Queues a message for writing, applying {@code audit.writer.overflow-policy} when the queue is full.
+     * Messages are only ever written by the writer thread, in the order they were submitted.
+     */
+    public void submit(AuditMessage message) {
+        // once a message fell back to the queue, later ones follow it there so they are not replayed first
+        if (spool != null && queue.isEmpty()) {
+            try {
+                spool.append(message);
+                return;
+            } catch (IOException e) {
+                log.error("Unable to spool audit of {} {}, queueing it in memory", message.getEntity(),
+                        message.getEntityId(), e);
+            }
+        }
+        Queued queued = new Queued(message, System.nanoTime());
+        if (queue.offer(queued)) {
+            return;
+        }
+        try {
+            switch (properties.getOverflowPolicy()) {
+                case BLOCK -> {
+                    if (queue.offer(queued, properties.getBlockTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                    drop(message);
+                }
+                case DROP -> drop(message);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop(message);
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Approximate size of the spooled messages not yet written, {@code 0} without a spool.
+     */
+    public long getSpooledBytes() {
+        return spool == null ? 0 : spool.getPendingBytes();
+    }
+
+    private void drop(AuditMessage message) {
+        dropped.incrementAndGet();
+        auditMetrics.dropped(message.getEntity(), message.getTenantId());
+        log.warn("Audit queue full, dropping {} {}", message.getEntity(), message.getEntityId());
+    }
+
+    private void drainLoop() {
+        List<Queued> batch = new ArrayList<>(properties.getBatchSize());
+        while (running || !queue.isEmpty()) {
+            drainQueue(batch, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Writes one batch from the queue, waiting up to {@code timeout} for its first message.
+     */
+    private void drainQueue(List<Queued> batch, long timeout, TimeUnit unit) {
+        try {
+            Queued first = queue.poll(timeout, unit);
+            if (first == null) {
+                return;
+            }
+            batch.add(first);
+            long deadline = System.nanoTime() + properties.getLinger().toNanos();
+            while (batch.size() < properties.getBatchSize()) {
+                if (queue.drainTo(batch, properties.getBatchSize() - batch.size()) > 0) {
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                Queued next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            // stop() interrupts the wait; keep draining until the queue is empty
+            queue.drainTo(batch, properties.getBatchSize() - batch.size());
+        }
+        if (!batch.isEmpty()) {
+            long now = System.nanoTime();
+            List<AuditMessage> messages = new ArrayList<>(batch.size());
+            for (Queued queued : batch) {
+                auditMetrics.recordQueueWait(queued.message().getEntity(), queued.message().getTenantId(),
+                        now - queued.queuedAt());
+                messages.add(queued.message());
+            }
+            writeBatch(messages);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Replays the spool into the database. A batch is committed in the spool only once it is written;
+     * while the database is unavailable the same batch is retried with exponential backoff. Messages
+     * that could not be spooled are written from the queue once the spool is drained, since everything
+     * spooled before them is older.
+     */
+    private void replayLoop() {
+        long retryDelay = 0;
+        AuditSpool.Batch batch = null;
+        List<Queued> fallback = new ArrayList<>(properties.getBatchSize());
+        while (running) {
+            try {
+                if (batch == null) {
+                    batch = spool.poll(properties.getBatchSize(), properties.getLinger());
+                    recordSpoolWait(batch);
+                }
+                if (!batch.messages().isEmpty()) {
+                    write(batch.messages());
+                } else if (!queue.isEmpty()) {
+                    drainQueue(fallback, 0, TimeUnit.NANOSECONDS);
+                }
+                spool.commit(batch.end());
+                batch = null;
+                retryDelay = 0;
+            } catch (InterruptedException e) {
+                // stop() interrupts the wait; whatever is left is replayed after the restart
+            } catch (Exception e) {
+                if (batch == null || !isTransient(e)) {
+                    log.error("Skipping spooled audit messages that cannot be written", e);
+                    if (batch != null) {
+                        countErrors(batch.messages());
+                    }
+                    batch = commitQuietly(batch);
+                    continue;
+                }
+                retryDelay = Math.min(Math.max(2 * retryDelay, 100), spoolProperties.getMaxRetryDelay().toMillis());
+                log.warn("Audit store unavailable, retrying {} spooled audit messages in {} ms: {}",
+                        batch.messages().size(), retryDelay, e.getMessage());
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException interrupted) {
+                    // stopping
+                }
+            }
+        }
+    }
+
+    /**
+     * Records how long the messages of a batch waited in the spool, across restarts included.
+     */
+    private void recordSpoolWait(AuditSpool.Batch batch) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batch.messages().size(); i++) {
+            AuditMessage message = batch.messages().get(i);
+            auditMetrics.recordQueueWait(message.getEntity(), message.getTenantId(),
+                    TimeUnit.MILLISECONDS.toNanos(Math.max(0, now - batch.appendedAt()[i])));
+        }
+    }
+
+    private AuditSpool.Batch commitQuietly(AuditSpool.Batch batch) {
+        if (batch != null) {
+            try {
+                spool.commit(batch.end());
+            } catch (IOException e) {
+                log.error("Unable to checkpoint the audit spool", e);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isTransient(Exception e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException || e instanceof CannotCreateTransactionException;
+    }
+
+    /**
+     * Writes the given messages, logging instead of throwing when the write fails.
+     */
+    private void writeBatch(List<AuditMessage> messages) {
+        try {
+            write(messages);
+        } catch (Exception e) {
+            countErrors(messages);
+            log.error("Error writing {} audit messages", messages.size(), e);
+        }
+    }
+
+    private void countErrors(List<AuditMessage> messages) {
+        for (AuditMessage message : messages) {
+            auditMetrics.error("write", message.getEntity(), message.getTenantId());
+        }
+    }
+
+    /**
+     * Writes the given messages in one transaction: one batched narrow update retires the current
+     * latest row of every entity in the batch, then the new rows are inserted as a single JDBC batch.
+     * The write holds one of the {@link AuditExecutor} writer permits.
+     */
+    private void write(List<AuditMessage> messages) {
+        long start = System.nanoTime();
+        List<AuditLog> written = auditExecutor.write(() -> transactionTemplate.execute(status -> {
+            List<AuditLog> rows = toRows(messages);
+            if (rows.isEmpty()) {
+                return rows;
+            }
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            List<String> columns = columns();
+            if (useCopy(rows.size())) {
+                jdbcTemplate.execute((ConnectionCallback<Long>) con -> AuditCopyWriter.copy(con, rows, columns, now));
+                return rows;
+            }
+            jdbcTemplate.batchUpdate(insertSql(columns), rows, rows.size(),
+                    (ps, row) -> bind(ps, columns, row, now));
+            return rows;
+        }));
+        if (written != null && !written.isEmpty()) {
+            auditMetrics.recordWrite(useCopy(written.size()) ? "copy" : "insert", System.nanoTime() - start);
+            for (AuditLog row : written) {
+                auditMetrics.rowWritten(row.getEntityName(), row.getTenantId());
+            }
+        }
+    }
+
+    private boolean useCopy(int rows) {
+        int threshold = properties.getCopyThreshold();
+        if (threshold <= 0 || rows < threshold) {
+            return false;
+        }
+        return isPostgres();
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            postgres = jdbcTemplate.execute(AuditCopyWriter::supports);
+            if (!postgres && properties.getCopyThreshold() > 0) {
+                log.info("Audit COPY ingestion needs PostgreSQL, using batched inserts");
+            }
+        }
+        return postgres;
+    }
+
+    /**
+     * {@link #COLUMNS} without the optional ones the table does not have yet, looked up once.
+     */
+    private List<String> columns() {
+        if (columns == null) {
+            Set<String> existing = existingColumns(jdbcTemplate);
+            List<String> written = new ArrayList<>(COLUMNS);
+            for (String column : OPTIONAL_COLUMNS) {
+                if (!existing.contains(column)) {
+                    log.info("{} has no {} column yet, leaving it out of audit writes", TABLE, column);
+                    written.remove(column);
+                }
+            }
+            columns = List.copyOf(written);
+        }
+        return columns;
+    }
+
+    /**
+     * The lower-case names of the columns {@link #TABLE} has in the database.
+     */
+    static Set<String> existingColumns(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.execute((ConnectionCallback<Set<String>>) con -> {
+            Set<String> names = new HashSet<>();
+            // unquoted identifiers are stored in lower case by PostgreSQL and in upper case by others
+            for (String table : List.of(TABLE, TABLE.toUpperCase(Locale.ROOT))) {
+                try (ResultSet result = con.getMetaData().getColumns(null, null, table, null)) {
+                    while (result.next()) {
+                        names.add(result.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            return names;
+        });
+    }
+
+    static String insertSql(List<String> columns) {
+        return "insert into " + TABLE + " (" + String.join(", ", columns) + ") values (" + columns.stream()
+                .map(column -> JSON_COLUMNS.contains(column) ? "cast(? as jsonb)" : "?")
+                .collect(Collectors.joining(", ")) + ")";
+    }
+
+    private static void bind(PreparedStatement ps, List<String> columns, AuditLog row, Timestamp createdTimestamp)
+            throws SQLException {
+        for (int i = 0; i < columns.size(); i++) {
+            int index = i + 1;
+            switch (columns.get(i)) {
+                case "entity_name" -> ps.setString(index, row.getEntityName());
+                case "entity_id" -> ps.setString(index, row.getEntityId());
+                case "table_name" -> ps.setString(index, row.getTableName());
+                case "latest" -> ps.setBoolean(index, row.getLatest());
+                case "action" -> ps.setString(index, row.getAction());
+                case "parent_id" -> ps.setString(index, row.getParentId());
+                case "tenant_id" -> ps.setString(index, row.getTenantId());
+                case "difference_list" -> ps.setString(index, toText(row.getDifferenceList()));
+                case "snapshot" -> ps.setString(index, toText(row.getSnapshot()));
+                case "created_timestamp" -> ps.setTimestamp(index, createdTimestamp);
+                default -> throw new IllegalArgumentException("Unknown audit column " + columns.get(i));
+            }
+        }
+    }
+
+    /**
+     * Builds the rows to insert. The previous latest row of each entity is never loaded: the
+     * {@link #RETIRE_LATEST_SQL} update count tells whether one existed, which decides between
+     * {@code Create} and {@code Update}/{@code Delete}. Within a batch only the last row of an
+     * entity keeps {@code latest = true}.
+     */
+    private List<AuditLog> toRows(List<AuditMessage> messages) {
+        Map<String, Integer> lastIndex = new LinkedHashMap<>();
+        List<AuditMessage> accepted = new ArrayList<>(messages.size());
+        for (AuditMessage audit : messages) {
+            // an insert always carries the entity id, so an empty payload is a no-op update
+            if (!audit.isDelete() && isEmptyJson(audit.getPayload())) {
+                continue;
+            }
+            lastIndex.put(key(audit), accepted.size());
+            accepted.add(audit);
+        }
+        if (accepted.isEmpty()) {
+            return List.of();
+        }
+
+        List<AuditMessage> firsts = new ArrayList<>(lastIndex.size());
+        Set<String> seen = new HashSet<>();
+        for (AuditMessage audit : accepted) {
+            if (seen.add(key(audit))) {
+                firsts.add(audit);
+            }
+        }
+        lockEntities(firsts);
+        Set<String> hasHistory = retireLatest(firsts);
+
+        List<AuditLog> rows = new ArrayList<>(accepted.size());
+        for (int i = 0; i < accepted.size(); i++) {
+            AuditMessage audit = accepted.get(i);
+            String key = key(audit);
+            var auditLog = new AuditLog();
+            auditLog.setDifferenceList(audit.getPayload());
+            auditLog.setSnapshot(audit.getSnapshot());
+            auditLog.setEntityName(audit.getEntity());
+            auditLog.setTableName(audit.getTable());
+            auditLog.setEntityId(audit.getEntityId());
+            auditLog.setTenantId(audit.getTenantId());
+            if (!hasHistory.add(key)) {
+                auditLog.setAction(audit.isDelete() ? "Delete" : "Update");
+            }
+            auditLog.setLatest(lastIndex.get(key) == i);
+            rows.add(auditLog);
+        }
+        return rows;
+    }
+
+    /**
+     * Serializes retire-then-insert per entity with writers of other application instances: on
+     * PostgreSQL the batch holds an advisory lock on each of its entities until it commits. Within one
+     * instance the writer thread is the only writer.
+     */
+    private void lockEntities(List<AuditMessage> audits) {
+        if (!isPostgres()) {
+            return;
+        }
+        // ascending, so two writers locking overlapping batches never deadlock
+        Integer[] keys = audits.stream().map(audit -> key(audit).hashCode()).distinct().sorted()
+                .toArray(Integer[]::new);
+        jdbcTemplate.execute((ConnectionCallback<Integer>) con -> {
+            try (PreparedStatement statement = con.prepareStatement(LOCK_ENTITIES_SQL)) {
+                statement.setArray(1, con.createArrayOf("int4", keys));
+                int locked = 0;
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        locked++;
+                    }
+                }
+                return locked;
+            }
+        });
+    }
+
+    /**
+     * Clears the latest flag of the given entities and returns the keys of those that had one. With
+     * {@code audit.partitioning.latest-lookback} the update is first restricted to recent rows so it
+     * only touches the recent partitions; entities without a recent row are then retired across all.
+     */
+    private Set<String> retireLatest(List<AuditMessage> audits) {
+        long start = System.nanoTime();
+        try {
+            return retireLatest(audits, partitioning.getLatestLookback());
+        } finally {
+            auditMetrics.recordLatest(System.nanoTime() - start);
+        }
+    }
+
+    private Set<String> retireLatest(List<AuditMessage> audits, Duration lookback) {
+        Set<String> hasHistory = new HashSet<>();
+        List<AuditMessage> remaining = audits;
+        if (lookback != null && !lookback.isZero()) {
+            Timestamp since = Timestamp.valueOf(LocalDateTime.now().minus(lookback));
+            int[][] counts = jdbcTemplate.batchUpdate(RETIRE_RECENT_LATEST_SQL, audits, audits.size(), (ps, audit) -> {
+                ps.setString(1, audit.getEntity());
+                ps.setString(2, audit.getEntityId());
+                ps.setTimestamp(3, since);
+            });
+            remaining = new ArrayList<>();
+            for (int i = 0; i < audits.size(); i++) {
+                if (counts[0][i] != 0) {
+                    hasHistory.add(key(audits.get(i)));
+                } else {
+                    remaining.add(audits.get(i));
+                }
+            }
+            if (remaining.isEmpty()) {
+                return hasHistory;
+            }
+        }
+        int[][] counts = jdbcTemplate.batchUpdate(RETIRE_LATEST_SQL, remaining, remaining.size(), (ps, audit) -> {
+            ps.setString(1, audit.getEntity());
+            ps.setString(2, audit.getEntityId());
+        });
+        for (int i = 0; i < remaining.size(); i++) {
+            if (counts[0][i] != 0) {
+                hasHistory.add(key(remaining.get(i)));
+            }
+        }
+        return hasHistory;
+    }
+
+    /**
+     * A message in the writer queue and when it was queued.
+     */
+    private record Queued(AuditMessage message, long queuedAt) {
+    }
+
+    private static String key(AuditMessage audit) {
+        return audit.getEntity() + ':' + audit.getEntityId();
+    }
+
+    private static String toText(byte[] json) {
+        return json == null ? null : new String(json, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether the payload is missing or an empty JSON object.
+     */
+    static boolean isEmptyJson(byte[] payload) {
+        if (payload == null) {
+            return true;
+        }
+        for (byte b : payload) {
+            if (b != '{' && b != '}' && !Character.isWhitespace(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
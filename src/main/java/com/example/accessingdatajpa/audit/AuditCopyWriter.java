@@ -0,0 +1,137 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.model.AuditLog;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Streams audit rows into {@code ctrm_audit_log_v2} with {@code COPY ... FROM STDIN} in text format,
+ * which PostgreSQL ingests considerably faster than a JDBC batch of inserts. The jsonb payload is
+ * escaped byte by byte and never decoded.
+ */
+final class AuditCopyWriter {
+
+    private static final byte[] NULL = {'\\', 'N'};
+    private static final byte[] TRUE = {'t'};
+    private static final byte[] FALSE = {'f'};
+
+    private AuditCopyWriter() {
+    }
+
+    /**
+     * Whether the connection is a PgJDBC connection, possibly behind a pool proxy.
+     */
+    static boolean supports(Connection connection) throws SQLException {
+        return connection.isWrapperFor(PGConnection.class);
+    }
+
+    /**
+     * Copies the given columns of the rows over the connection, taking part in its current transaction.
+     *
+     * @return the number of rows copied
+     */
+    static long copy(Connection connection, List<AuditLog> rows, List<String> columns, Timestamp createdTimestamp)
+            throws SQLException {
+        byte[] timestamp = bytes(createdTimestamp.toLocalDateTime().toString());
+        String sql = "copy " + AuditBatchWriter.TABLE + " (" + String.join(", ", columns) + ") from stdin";
+        var out = new PGCopyOutputStream(connection.unwrap(PGConnection.class), sql, 1 << 16);
+        try {
+            for (AuditLog row : rows) {
+                writeRow(out, row, columns, timestamp);
+            }
+            return out.endCopy();
+        } catch (IOException e) {
+            SQLException failure = new SQLException("Unable to copy audit rows", e);
+            cancel(out, failure);
+            throw failure;
+        } catch (SQLException | RuntimeException e) {
+            cancel(out, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Aborts a copy that failed midway. A failure to abort is attached to the original one, which it
+     * must not replace.
+     */
+    private static void cancel(PGCopyOutputStream out, Exception failure) {
+        if (!out.isActive()) {
+            return;
+        }
+        try {
+            out.cancelCopy();
+        } catch (SQLException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Writes one row in COPY text format: tab separated columns, {@code \N} for null, one line per row.
+     */
+    static void writeRow(OutputStream out, AuditLog row, List<String> columns, byte[] createdTimestamp)
+            throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                out.write('\t');
+            }
+            writeField(out, field(row, columns.get(i), createdTimestamp));
+        }
+        out.write('\n');
+    }
+
+    private static byte[] field(AuditLog row, String column, byte[] createdTimestamp) {
+        return switch (column) {
+            case "entity_name" -> bytes(row.getEntityName());
+            case "entity_id" -> bytes(row.getEntityId());
+            case "table_name" -> bytes(row.getTableName());
+            case "latest" -> row.getLatest() == null ? null : row.getLatest() ? TRUE : FALSE;
+            case "action" -> bytes(row.getAction());
+            case "parent_id" -> bytes(row.getParentId());
+            case "tenant_id" -> bytes(row.getTenantId());
+            case "difference_list" -> row.getDifferenceList();
+            case "snapshot" -> row.getSnapshot();
+            case "created_timestamp" -> createdTimestamp;
+            default -> throw new IllegalArgumentException("Unknown audit column " + column);
+        };
+    }
+
+    /**
+     * Escapes backslash and the column and row delimiters. Multi-byte UTF-8 sequences never contain
+     * ASCII bytes, so escaping the encoded bytes is safe.
+     */
+    private static void writeField(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < value.length; i++) {
+            byte escaped = switch (value[i]) {
+                case '\\' -> '\\';
+                case '\t' -> 't';
+                case '\n' -> 'n';
+                case '\r' -> 'r';
+                default -> 0;
+            };
+            if (escaped != 0) {
+                out.write(value, start, i - start);
+                out.write('\\');
+                out.write(escaped);
+                start = i + 1;
+            }
+        }
+        out.write(value, start, value.length - start);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
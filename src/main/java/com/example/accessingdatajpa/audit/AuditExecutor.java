@@ -0,0 +1,313 @@
+package com.example.accessingdatajpa.audit;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Dedicated executor for audit work, kept apart from request threads.
+ * <p>
+ * Tasks are spread over single-threaded lanes by key so the audits of one entity are always handed
+ * to the writer in commit order. Lanes run on virtual threads when the JVM supports them (Java 21+)
+ * and on a sized pool of platform threads otherwise. Database writes additionally take a permit from
+ * a semaphore so audit traffic can never hold more than {@code audit.executor.max-concurrent-writers}
+ * connections of the shared pool.
+ */
+@Slf4j
+@Component
+public class AuditExecutor {
+
+    private final AuditProperties.Executor properties;
+    private final Lane[] lanes;
+    private final Semaphore writePermits;
+    private final boolean virtualThreads;
+
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder executedTasks = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final LongAdder writePermitWaitNanos = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    public AuditExecutor(AuditProperties auditProperties, AuditMetrics auditMetrics) {
+        this.properties = auditProperties.getExecutor();
+        ThreadFactory virtualFactory = properties.isVirtualThreads() ? virtualThreadFactory() : null;
+        this.virtualThreads = virtualFactory != null;
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = virtualFactory != null ? virtualFactory : task -> {
+            Thread thread = new Thread(task, "audit-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        lanes = new Lane[properties.getThreads()];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity() / lanes.length)),
+                    threadFactory, new ThreadPoolExecutor.AbortPolicy()),
+                    Math.max(1, properties.getSpillCapacity() / lanes.length));
+        }
+        writePermits = new Semaphore(properties.getMaxConcurrentWriters(), true);
+        log.info("Audit executor started with {} {} lanes", lanes.length, virtualThreads ? "virtual" : "platform");
+        auditMetrics.gauge("audit.executor.queue.depth", "Audit tasks waiting for a lane", this,
+                executor -> executor.getStats().queueDepth());
+        auditMetrics.gauge("audit.executor.active.writers", "Audit database writes in progress", writePermits,
+                permits -> properties.getMaxConcurrentWriters() - permits.availablePermits());
+        auditMetrics.counter("audit.executor.rejections", "Audit tasks that found their lane full", rejections,
+                LongAdder::sum);
+        auditMetrics.counter("audit.executor.discarded", "Audit tasks dropped because their lane stayed full",
+                discarded, LongAdder::sum);
+        auditMetrics.counter("audit.executor.queue.wait", "Total time audit tasks waited for a lane, in seconds",
+                queueWaitNanos, wait -> wait.sum() / 1e9);
+    }
+
+    /**
+     * Runs the task on the lane owning {@code key}, applying {@code audit.executor.saturation-policy}
+     * when that lane is full.
+     */
+    public void execute(String key, Runnable task) {
+        Lane lane = lanes[Math.floorMod(key.hashCode(), lanes.length)];
+        Runnable timed = timed(lane, task);
+        if (lane.hasSpilled()) {
+            // keep behind already spilled tasks so per-entity order holds
+            lane.spill(timed);
+            lane.drainSpilled();
+            return;
+        }
+        try {
+            lane.executor.execute(timed);
+            return;
+        } catch (RejectedExecutionException e) {
+            if (lane.executor.isShutdown()) {
+                task.run();
+                return;
+            }
+            rejections.increment();
+        }
+        // never run the task on the caller: it would overtake the tasks queued for the same entity
+        try {
+            switch (properties.getSaturationPolicy()) {
+                case BLOCK -> {
+                    if (!lane.executor.getQueue().offer(timed, properties.getBlockTimeout().toMillis(),
+                            TimeUnit.MILLISECONDS)) {
+                        lane.spill(timed);
+                    }
+                }
+                case DISCARD -> {
+                    if (!lane.executor.getQueue().offer(timed, properties.getBlockTimeout().toMillis(),
+                            TimeUnit.MILLISECONDS)) {
+                        discarded.increment();
+                        log.warn("Audit lane full, discarding a task for {}", key);
+                    }
+                }
+                case SPILL -> lane.spill(timed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lane.spill(timed);
+        }
+        // the lane may have emptied meanwhile, with nothing left to resubmit the spilled task
+        lane.drainSpilled();
+    }
+
+    /**
+     * Runs a database write while holding one of the writer permits.
+     */
+    public <T> T write(Supplier<T> write) {
+        long start = System.nanoTime();
+        writePermits.acquireUninterruptibly();
+        writePermitWaitNanos.add(System.nanoTime() - start);
+        writes.increment();
+        try {
+            return write.get();
+        } finally {
+            writePermits.release();
+        }
+    }
+
+    public void write(Runnable write) {
+        write(() -> {
+            write.run();
+            return null;
+        });
+    }
+
+    public Stats getStats() {
+        int queued = 0;
+        int spilled = 0;
+        for (Lane lane : lanes) {
+            queued += lane.executor.getQueue().size();
+            spilled += lane.spilledCount();
+        }
+        long executed = executedTasks.sum();
+        return new Stats(queued + spilled, spilled, executed,
+                executed == 0 ? 0 : queueWaitNanos.sum() / executed, maxQueueWaitNanos.get(),
+                rejections.sum(), discarded.sum(),
+                properties.getMaxConcurrentWriters() - writePermits.availablePermits(), writePermits.getQueueLength(),
+                writes.sum(), writePermitWaitNanos.sum(), virtualThreads);
+    }
+
+    private Runnable timed(Lane lane, Runnable task) {
+        long submitted = System.nanoTime();
+        return () -> {
+            long waited = System.nanoTime() - submitted;
+            queueWaitNanos.add(waited);
+            maxQueueWaitNanos.accumulateAndGet(waited, Math::max);
+            executedTasks.increment();
+            try {
+                task.run();
+            } finally {
+                lane.drainSpilled();
+            }
+        };
+    }
+
+    /**
+     * {@code Thread.ofVirtual().name("audit-", 0).factory()} looked up reflectively so the code still
+     * builds and runs on Java 17.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "audit-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        for (Lane lane : lanes) {
+            lane.drainSpilled();
+            lane.executor.shutdown();
+        }
+        for (Lane lane : lanes) {
+            lane.executor.awaitTermination(10, TimeUnit.SECONDS);
+            lane.runSpilled();
+        }
+    }
+
+    /**
+     * One single-threaded executor plus the tasks parked because it was full, bounded so a backed up
+     * lane slows its callers down instead of growing the heap. Each lane has its own lock, so a full
+     * lane never holds up the others.
+     */
+    private static final class Lane {
+        private final ThreadPoolExecutor executor;
+        private final int spillCapacity;
+        private final ArrayDeque<Runnable> spilled = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+
+        private Lane(ThreadPoolExecutor executor, int spillCapacity) {
+            this.executor = executor;
+            this.spillCapacity = spillCapacity;
+        }
+
+        boolean hasSpilled() {
+            return spilledCount() > 0;
+        }
+
+        int spilledCount() {
+            lock.lock();
+            try {
+                return spilled.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Parks the task behind the already spilled ones, waiting while the lane has its share parked.
+         */
+        void spill(Runnable task) {
+            lock.lock();
+            try {
+                while (spilled.size() >= spillCapacity && !executor.isShutdown()) {
+                    notFull.awaitUninterruptibly();
+                }
+                spilled.add(task);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Resubmits spilled tasks in order until the executor is full again.
+         */
+        void drainSpilled() {
+            lock.lock();
+            try {
+                Runnable task;
+                while ((task = spilled.peek()) != null) {
+                    try {
+                        executor.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        return;
+                    }
+                    spilled.poll();
+                    notFull.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Runs what is still spilled on the calling thread once the executor has terminated.
+         */
+        void runSpilled() {
+            Runnable task;
+            while (true) {
+                lock.lock();
+                try {
+                    task = spilled.poll();
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (task == null) {
+                    return;
+                }
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Point-in-time view of the executor, for sizing it under real load.
+     *
+     * @param queueDepth           tasks waiting for a lane, spilled ones included
+     * @param spilled              tasks parked outside the lanes because theirs was full
+     * @param executed             tasks run on a lane
+     * @param avgQueueWaitNanos    average time from submission to start
+     * @param maxQueueWaitNanos    longest time from submission to start
+     * @param rejections           submissions that found their lane full
+     * @param discarded            tasks dropped by {@link AuditProperties.SaturationPolicy#DISCARD}
+     * @param activeWriters        database writes in progress
+     * @param waitingWriters       database writes waiting for a permit
+     * @param writes               database writes performed
+     * @param writePermitWaitNanos total time spent waiting for a writer permit
+     * @param virtualThreads       whether lanes run on virtual threads
+     */
+    public record Stats(int queueDepth, int spilled, long executed, long avgQueueWaitNanos, long maxQueueWaitNanos,
+                        long rejections, long discarded, int activeWriters, int waitingWriters, long writes,
+                        long writePermitWaitNanos, boolean virtualThreads) {
+    }
+}
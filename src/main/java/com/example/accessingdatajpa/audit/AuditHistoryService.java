@@ -0,0 +1,160 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.model.AuditLog;
+import com.example.accessingdatajpa.audit.repo.AuditLogRepo;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.taomish.utils.JsonUtils;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Bounded-memory access to audit history: keyset pages for the UI, a cursor for exports and
+ * point-in-time reconstruction of an entity.
+ */
+@RequiredArgsConstructor
+@Service
+public class AuditHistoryService {
+
+    /**
+     * The newest row created at or before a time that holds the full state of the entity: a periodic
+     * snapshot or the insert, which always carries one. Read over JDBC because the snapshot column is
+     * not mapped on {@link AuditLog}.
+     */
+    static final String FULL_STATE_AS_OF_SQL = "select id, snapshot from " + AuditBatchWriter.TABLE +
+            " where entity_name = ? and entity_id = ? and created_timestamp <= ? and snapshot is not null" +
+            " order by id desc limit 1";
+
+    private final AuditLogRepo auditLogRepo;
+    private final EntityManager entityManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper = JsonUtils.buildObjectMapper();
+    private volatile Boolean snapshots;
+
+    /**
+     * A page of at most {@code size} rows of an entity's history, oldest first. Pass {@code null} for
+     * the first page and {@code window.positionAt(window.size() - 1)} for the following ones.
+     */
+    @Transactional(readOnly = true)
+    public Window<AuditLog> history(String entityName, String entityId, KeysetScrollPosition position, int size) {
+        return auditLogRepo.findByEntityNameAndEntityIdOrderByIdAsc(entityName, entityId,
+                position == null ? ScrollPosition.keyset() : position, Limit.of(size));
+    }
+
+    /**
+     * A page of at most {@code size} rows of the history of every entity of a type.
+     */
+    @Transactional(readOnly = true)
+    public Window<AuditLog> history(String entityName, KeysetScrollPosition position, int size) {
+        return auditLogRepo.findByEntityNameOrderByEntityIdAscIdAsc(entityName,
+                position == null ? ScrollPosition.keyset() : position, Limit.of(size));
+    }
+
+    /**
+     * Hands an entity's whole history to {@code consumer}, oldest first, holding only one fetch of
+     * rows in memory at a time. Rows are detached once consumed so the persistence context stays empty.
+     *
+     * @return the number of rows exported
+     */
+    @Transactional(readOnly = true)
+    public long export(String entityName, String entityId, Consumer<AuditLog> consumer) {
+        try (Stream<AuditLog> rows = auditLogRepo.streamByEntityNameAndEntityIdOrderByIdAsc(entityName, entityId)) {
+            return consume(rows, consumer);
+        }
+    }
+
+    /**
+     * Hands the history of every entity of a type to {@code consumer}, entity by entity.
+     *
+     * @return the number of rows exported
+     */
+    @Transactional(readOnly = true)
+    public long export(String entityName, Consumer<AuditLog> consumer) {
+        try (Stream<AuditLog> rows = auditLogRepo.streamByEntityNameOrderByEntityIdAscIdAsc(entityName)) {
+            return consume(rows, consumer);
+        }
+    }
+
+    /**
+     * Rebuilds the flattened state of an entity as of {@code at}, starting from the nearest full
+     * state and replaying the diffs written after it. Empty when the entity did not exist then or
+     * had been deleted.
+     *
+     * @throws IllegalStateException if the snapshot migration has not run, so no full state was stored
+     */
+    @Transactional(readOnly = true)
+    public Optional<SortedMap<String, String>> stateAsOf(String entityName, String entityId, LocalDateTime at) {
+        if (!hasSnapshots()) {
+            throw new IllegalStateException(AuditBatchWriter.TABLE + " has no snapshot column yet, " +
+                    "run the audit snapshot migration to rebuild past states");
+        }
+        List<FullState> base = jdbcTemplate.query(FULL_STATE_AS_OF_SQL,
+                (rs, rowNum) -> new FullState(rs.getLong("id"), rs.getString("snapshot")),
+                entityName, entityId, Timestamp.valueOf(at));
+        if (base.isEmpty()) {
+            return Optional.empty();
+        }
+        FullState fullState = base.get(0);
+        var replay = AuditReplay.from(read(fullState.snapshot().getBytes(StandardCharsets.UTF_8)));
+        try (Stream<AuditLog> rows = auditLogRepo
+                .streamByEntityNameAndEntityIdAndIdGreaterThanAndCreatedTimestampLessThanEqualOrderByIdAsc(
+                        entityName, entityId, fullState.id(), at)) {
+            for (Iterator<AuditLog> iterator = rows.iterator(); iterator.hasNext(); ) {
+                AuditLog row = iterator.next();
+                if ("Delete".equals(row.getAction())) {
+                    return Optional.empty();
+                }
+                replay.apply(read(row.getDifferenceList()));
+                entityManager.detach(row);
+            }
+        }
+        return Optional.of(replay.state());
+    }
+
+    private boolean hasSnapshots() {
+        if (snapshots == null) {
+            snapshots = AuditBatchWriter.existingColumns(jdbcTemplate).contains("snapshot");
+        }
+        return snapshots;
+    }
+
+    private JsonNode read(byte[] json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable audit payload", e);
+        }
+    }
+
+    private long consume(Stream<AuditLog> rows, Consumer<AuditLog> consumer) {
+        long count = 0;
+        for (var iterator = rows.iterator(); iterator.hasNext(); count++) {
+            AuditLog row = iterator.next();
+            consumer.accept(row);
+            entityManager.detach(row);
+        }
+        return count;
+    }
+
+    private record FullState(long id, String snapshot) {
+    }
+}
@@ -4,199 +4,455 @@ import com.example.accessingdatajpa.audit.domain.AuditMessage;
 import com.example.accessingdatajpa.audit.domain.EntityInfo;
 import com.example.accessingdatajpa.audit.model.AbstractBaseEntity;
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Maps;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.taomish.utils.JsonUtils;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.Table;
+import org.hibernate.collection.spi.PersistentCollection;
 import org.hibernate.event.spi.*;
 import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import org.springframework.util.ObjectUtils;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 
 @Component
-public class AuditListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+public class AuditListener implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
 
-    private final Set<String> excludedEntities = Set.of("AuditLog", "HttpTraceAuditLog");
-    private final Set<String> keyFields = Set.of("tradeId");
-
-    private final AuditService auditService;
+    private final AuditRateLimiter rateLimiter;
 
     private final EntityManager entityManager;
 
-    private final Logger log = LoggerFactory.getLogger(AuditListener.class);
+    private final boolean postCommit;
+
+    private final boolean coalesce;
+
+    /**
+     * Diff JSON-mapped properties as JSON token streams instead of walking their Java values.
+     */
+    private final boolean jsonTokens;
+
+    private final AuditExecutor auditExecutor;
 
-    TypeReference<Map<String, Object>> typeRef = new TypeReference<>() {
-    };
+    private final AuditPlans auditPlans;
+
+    private final SnapshotPolicy snapshotPolicy;
+
+    private final AuditMetrics auditMetrics;
+
+    private final Logger log = LoggerFactory.getLogger(AuditListener.class);
 
     private final ObjectMapper objectMapper = JsonUtils.buildObjectMapper();
 
-    public AuditListener(AuditService auditService, EntityManager entityManager) {
-        this.auditService = auditService;
+    /**
+     * Serializes audit payloads straight to UTF-8 bytes; they are not parsed again on the way to the database.
+     */
+    private final ObjectWriter payloadWriter;
+
+    /**
+     * Fingerprints of complex values, keyed by identity. The new state Hibernate passes on update is its own
+     * copy of each mutable value, and that copy comes back as the old state of the entity's next update,
+     * so the old side is hashed at most once.
+     */
+    private final Cache<Object, Long> fingerprints = CacheBuilder.newBuilder().weakKeys().build();
+
+    public AuditListener(AuditRateLimiter rateLimiter, EntityManager entityManager, AuditProperties auditProperties,
+                         AuditExecutor auditExecutor, AuditPlans auditPlans, SnapshotPolicy snapshotPolicy,
+                         AuditMetrics auditMetrics) {
+        this.rateLimiter = rateLimiter;
         this.entityManager = entityManager;
+        this.postCommit = auditProperties.isPostCommit();
+        this.coalesce = auditProperties.isCoalesce();
+        this.jsonTokens = auditProperties.getJsonDiffMode() == AuditProperties.JsonDiffMode.TOKENS;
+        this.auditExecutor = auditExecutor;
+        this.auditPlans = auditPlans;
+        this.snapshotPolicy = snapshotPolicy;
+        this.auditMetrics = auditMetrics;
         objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        this.payloadWriter = objectMapper.writer();
+        rateLimiter.onHeldUpdate(update -> diffUpdate(update.plan(), update.id(), update.oldState(), update.state(),
+                update.dirtyProperties(), update.entityInfo()), AuditPlan::copyState);
     }
 
     @Override
     public void onPostUpdate(PostUpdateEvent event) {
+        AuditPlan plan = auditPlans.get(event.getPersister().getMappedClass());
         // Early return if entity should be excluded
-        if (shouldExclude(event.getEntity())) return;
+        if (plan == null || plan.isExcluded()) return;
+
+        EntityInfo entityInfo = getEntityInfo(plan, event.getEntity());
+        if (plan.rules(entityInfo.tenantId()).isExcluded()) return;
+        long start = System.nanoTime();
+        try {
+            var buffer = transactionBuffer();
+            if (buffer != null) {
+                buffer.update(entityInfo, event.getPersister(), event.getId(), event.getOldState(), event.getState(),
+                        event.getDirtyProperties());
+                return;
+            }
+            if (postCommit) {
+                // Snapshot the flushed state; diffing and persistence happen off the committing thread
+                Object id = event.getId();
+                Object[] oldState = event.getOldState() == null ? null : plan.copyState(event.getOldState());
+                Object[] state = plan.copyState(event.getState());
+                int[] dirtyProperties = event.getDirtyProperties();
+                auditExecutor.execute(entityInfo.uuid(),
+                        () -> auditUpdate(plan, id, oldState, state, dirtyProperties, entityInfo));
+                return;
+            }
+            auditUpdate(plan, event.getId(), event.getOldState(), event.getState(), event.getDirtyProperties(),
+                    entityInfo);
+        } finally {
+            auditMetrics.recordListener("update", plan.getEntityName(), entityInfo.tenantId(),
+                    System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        log.debug("Transaction did not commit, skipping audit of {}", event.getEntity().getClass().getSimpleName());
+    }
 
-        String[] propertyNames = event.getPersister().getPropertyNames();
-        Object[] oldState = event.getOldState();
-        Object[] state = event.getState();
+    private void auditUpdate(AuditPlan plan, Object id, Object[] oldState, Object[] state, int[] dirtyProperties,
+                             EntityInfo entityInfo) {
+        // Hibernate has no loaded state for updates of detached entities, so there is nothing to diff
+        if (oldState == null) return;
+        if (rateLimiter.admitUpdate(new AuditRateLimiter.PendingUpdate(plan, id, oldState, state, dirtyProperties,
+                entityInfo))) {
+            diffUpdate(plan, id, oldState, state, dirtyProperties, entityInfo);
+        }
+    }
+
+    /**
+     * Diffs the old and new state. Only the dirty property indexes reported by Hibernate are compared;
+     * every property is scanned when {@code dirtyProperties} is {@code null}.
+     */
+    private void diffUpdate(AuditPlan plan, Object id, Object[] oldState, Object[] state, int[] dirtyProperties,
+                            EntityInfo entityInfo) {
+        long start = System.nanoTime();
+        long flattenNanos = 0;
+        AuditRules rules = plan.rules(entityInfo.tenantId());
         Map<String, Object> changes = new HashMap<>();
+        String[] propertyNames = plan.getPropertyNames();
+        AuditPlan.PropertyKind[] kinds = plan.getPropertyKinds();
 
         // Process each property in a single loop
-        for (int i = 0; i < propertyNames.length; i++) {
+        int count = dirtyProperties == null ? propertyNames.length : dirtyProperties.length;
+        for (int k = 0; k < count; k++) {
+            int i = dirtyProperties == null ? k : dirtyProperties[k];
+            if (!rules.isAudited(i)) {
+                continue;
+            }
             String fieldName = propertyNames[i];
             Object oldValue = oldState[i];
             Object newValue = state[i];
 
             // Skip if values are effectively equal (handles LocalDateTime precision issues)
-            if (isEffectivelyEqual(oldValue, newValue)) {
+            if (kinds[i].isEffectivelyEqual(oldValue, newValue)) {
                 continue;
             }
 
             // Handle key fields differently
-            if (keyFields.contains(fieldName)) {
+            if (plan.isKeyField(i)) {
                 changes.put(fieldName, newValue);
                 continue;
             }
 
             // Process primitive values
-            if (ObjectFlattener.isPrimitiveOrWrapper(newValue) || ObjectFlattener.isPrimitiveOrWrapper(oldValue)) {
+            if (kinds[i] != AuditPlan.PropertyKind.COMPLEX && (kinds[i] != AuditPlan.PropertyKind.DYNAMIC
+                    || ObjectFlattener.isPrimitiveOrWrapper(newValue) || ObjectFlattener.isPrimitiveOrWrapper(oldValue))) {
                 changes.put(fieldName, oldValue + "->" + newValue);
                 continue;
             }
 
             // Process complex objects
-            processComplexObject(fieldName, oldValue, newValue, changes);
+            flattenNanos += processComplexObject(fieldName, oldValue, newValue, rules.excludedPaths(i),
+                    jsonTokens && plan.isJsonField(i), changes, entityInfo);
+        }
+        if (flattenNanos > 0) {
+            auditMetrics.recordFlatten(entityInfo.entityName(), entityInfo.tenantId(), flattenNanos);
         }
+        auditMetrics.recordDiff(entityInfo.entityName(), entityInfo.tenantId(), System.nanoTime() - start,
+                changes.size());
 
         // Only save audit if there are actual changes
         if (!changes.isEmpty()) {
-            saveAudit(changes, false, getEntityInfo(event.getEntity()));
+            saveUpdate(changes, plan, id, state, entityInfo);
         }
     }
 
     /**
-     * Checks if two values are effectively equal, handling special cases like LocalDateTime
+     * Process complex (non-primitive) objects by walking the old and new value together, or their JSON
+     * token streams if {@code json}. Paths matched by {@code excludedPaths} are never visited.
+     *
+     * @return the time spent walking the values, in nanoseconds
      */
-    private boolean isEffectivelyEqual(Object oldValue, Object newValue) {
-        if (oldValue == newValue) return true;
-        if (oldValue == null || newValue == null) return false;
+    private long processComplexObject(String fieldName, Object oldValue, Object newValue,
+                                      Predicate<String> excludedPaths, boolean json, Map<String, Object> changes,
+                                      EntityInfo entityInfo) {
+        if (oldValue == null && excludedPaths == null) {
+            changes.put(fieldName, newValue);
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            if (json) {
+                JsonTokenDiffer.diff(fieldName, oldValue, newValue, objectMapper, excludedPaths, changes::put);
+            } else if (oldValue == null || newValue == null || fingerprintOf(oldValue) != fingerprintOf(newValue)) {
+                // equal fingerprints: e.g. a jsonb value deserialized into a fresh object without equals
+                StructuralDiffer.diff(fieldName, oldValue, newValue, excludedPaths, changes::put);
+            }
+        } catch (Exception e) {
+            auditMetrics.partial("diff", entityInfo.entityName(), entityInfo.tenantId());
+            log.error("Error diffing {} of {} {}, the field is only partly audited", fieldName,
+                    entityInfo.entityName(), entityInfo.uuid(), e);
+        }
+        return System.nanoTime() - start;
+    }
 
-        // Handle LocalDateTime special case
-        if (oldValue instanceof LocalDateTime && newValue instanceof LocalDateTime) {
-            LocalDateTime oldTime = (LocalDateTime) oldValue;
-            LocalDateTime newTime = (LocalDateTime) newValue;
-            // Consider equal if they're within 1 millisecond of each other
-            return Math.abs(ChronoUnit.MILLIS.between(oldTime, newTime)) < 1;
+    private long fingerprintOf(Object value) throws ExecutionException {
+        if (value instanceof PersistentCollection<?> || value instanceof HibernateProxy
+                || value.getClass().isAnnotationPresent(Entity.class)) {
+            // live objects the application keeps changing, not copies Hibernate took at flush
+            return Fingerprint.of(value);
         }
+        return fingerprints.get(value, () -> Fingerprint.of(value));
+    }
 
-        return oldValue.equals(newValue);
+    private static boolean isEquals(Object oldValue, Object newValue) {
+        return Objects.equals(oldValue, newValue);
     }
 
-    /**
-     * Process complex (non-primitive) objects by flattening and comparing them
-     */
-    private void processComplexObject(String fieldName, Object oldValue, Object newValue, Map<String, Object> changes) {
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        AuditPlan plan = auditPlans.get(event.getPersister().getMappedClass());
+        if (plan == null || plan.isExcluded()) return;
+        EntityInfo entityInfo = getEntityInfo(plan, event.getEntity());
+        if (plan.rules(entityInfo.tenantId()).isExcluded()) return;
+        long start = System.nanoTime();
         try {
-            if (oldValue == null) {
-                changes.put(fieldName, newValue);
+            var buffer = transactionBuffer();
+            if (buffer != null) {
+                buffer.insert(entityInfo, event.getPersister(), event.getId(), event.getState());
                 return;
             }
+            Object id = event.getId();
+            if (postCommit) {
+                // serialized later, after the caller may have changed the entity again
+                Object[] state = plan.copyState(event.getState());
+                auditExecutor.execute(entityInfo.uuid(), () -> saveAudit(plan, id, state, false, entityInfo));
+                return;
+            }
+            saveAudit(plan, id, event.getState(), false, entityInfo);
+        } finally {
+            auditMetrics.recordListener("insert", plan.getEntityName(), entityInfo.tenantId(),
+                    System.nanoTime() - start);
+        }
+    }
 
-            // Flatten both objects and find differences
-            Map<String, Object> oldMap = ObjectFlattener.flatten(oldValue, fieldName + '.');
-            Map<String, Object> newMap = ObjectFlattener.flatten(newValue, fieldName + '.');
-            var difference = Maps.difference(oldMap, newMap);
-
-            // Process differences
-            difference.entriesDiffering().forEach((k, v) -> {
-                if (!ObjectUtils.isEmpty(v.leftValue()) || !ObjectUtils.isEmpty(v.rightValue())) {
-                    changes.put(k, v.leftValue() + "->" + v.rightValue());
-                }
-            });
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+        log.debug("Transaction did not commit, skipping audit of {}", event.getEntity().getClass().getSimpleName());
+    }
 
-            // Process removals (only in old)
-            difference.entriesOnlyOnLeft().forEach((k, v) -> {
-                if (!ObjectUtils.isEmpty(v)) changes.put(k, "-" + v);
-            });
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return postCommit;
+    }
 
-            // Process additions (only in new)
-            difference.entriesOnlyOnRight().forEach((k, v) -> {
-                if (!ObjectUtils.isEmpty(v)) changes.put(k, "+" + v);
-            });
-        } catch (Exception e) {
-            log.error("Error processing field: " + fieldName, e);
-        }
+    private AuditTransactionBuffer transactionBuffer() {
+        return coalesce ? AuditTransactionBuffer.current(this::emit,
+                (persister, state) -> auditPlans.get(persister.getMappedClass()).copyState(state)) : null;
     }
 
-    private static boolean isEquals(Object oldValue, Object newValue) {
-        return Objects.equals(oldValue, newValue);
+    /**
+     * Audits the net change of an entity once its transaction has committed.
+     */
+    private void emit(AuditTransactionBuffer.PendingAudit pending) {
+        EntityInfo entityInfo = pending.getEntityInfo();
+        AuditPlan plan = auditPlans.get(pending.getPersister().getMappedClass());
+        Runnable task;
+        if (pending.isInserted() || pending.isDeleted()) {
+            task = () -> saveAudit(plan, pending.getId(), pending.getState(), pending.isDeleted(), entityInfo);
+        } else {
+            task = () -> auditUpdate(plan, pending.getId(), pending.getOldState(), pending.getState(),
+                    pending.getDirtyProperties(), entityInfo);
+        }
+        if (postCommit) {
+            auditExecutor.execute(entityInfo.uuid(), task);
+        } else {
+            task.run();
+        }
     }
 
-    private boolean shouldExclude(Object event) {
-        return excludedEntities.contains(event.getClass().getSimpleName());
+    /**
+     * The audited property values of an insert or delete. Values with excluded paths are copied as a
+     * JSON tree with those paths removed.
+     */
+    private Map<String, Object> snapshotOf(AuditPlan plan, Object id, Object[] state, EntityInfo entityInfo) {
+        AuditRules rules = plan.rules(entityInfo.tenantId());
+        String[] propertyNames = plan.getPropertyNames();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put(plan.getIdentifierName(), id);
+        for (int i = 0; i < propertyNames.length; i++) {
+            if (state[i] == null || !rules.isAudited(i)) {
+                continue;
+            }
+            Predicate<String> excludedPaths = rules.excludedPaths(i);
+            if (excludedPaths == null) {
+                snapshot.put(propertyNames[i], state[i]);
+            } else {
+                JsonNode value = objectMapper.valueToTree(state[i]);
+                prune(value, propertyNames[i], excludedPaths);
+                snapshot.put(propertyNames[i], value);
+            }
+        }
+        return snapshot;
     }
 
-    @Override
-    public void onPostInsert(PostInsertEvent event) {
-        if (shouldExclude(event.getEntity())) return;
-        saveAudit(event.getEntity(), false, getEntityInfo(event.getEntity()));
+    /**
+     * The audited state flattened by the rules the diffs are computed with, so that
+     * {@link AuditReplay} can apply later diffs to it path by path.
+     */
+    private Map<String, String> flatSnapshotOf(AuditPlan plan, Object id, Object[] state, EntityInfo entityInfo) {
+        AuditRules rules = plan.rules(entityInfo.tenantId());
+        String[] propertyNames = plan.getPropertyNames();
+        Map<String, String> snapshot = new TreeMap<>();
+        snapshot.put(plan.getIdentifierName(), String.valueOf(id));
+        for (int i = 0; i < propertyNames.length; i++) {
+            if (state[i] != null && rules.isAudited(i)) {
+                AuditReplay.flattenProperty(propertyNames[i], state[i], rules.excludedPaths(i), snapshot);
+            }
+        }
+        return snapshot;
     }
 
-    @Override
-    public boolean requiresPostCommitHandling(EntityPersister persister) {
-        return false;
+    private static void prune(JsonNode node, String path, Predicate<String> excludedPaths) {
+        if (node.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                var field = fields.next();
+                String fieldPath = path + '.' + field.getKey();
+                if (excludedPaths.test(fieldPath)) {
+                    fields.remove();
+                } else {
+                    prune(field.getValue(), fieldPath, excludedPaths);
+                }
+            }
+        } else if (node.isArray()) {
+            for (int i = node.size() - 1; i >= 0; i--) {
+                String itemPath = path + '.' + i;
+                if (excludedPaths.test(itemPath)) {
+                    ((ArrayNode) node).remove(i);
+                } else {
+                    prune(node.get(i), itemPath, excludedPaths);
+                }
+            }
+        }
     }
 
-    private void saveAudit(Object baseEntity, boolean isDelete, EntityInfo entityInfo) {
+    private void saveAudit(AuditPlan plan, Object id, Object[] state, boolean isDelete, EntityInfo entityInfo) {
         if (entityInfo == null) return;
         try {
-            auditService.saveAudit(new AuditMessage(entityInfo.tenantId(), entityInfo.entityName(), entityInfo.uuid(),
-                    entityInfo.tableName(), objectMapper.convertValue(baseEntity, typeRef), "", isDelete, entityInfo.updatedBy()));
+            // inserts and deletes carry the full state, so the next diff starts a new chain
+            String key = entityInfo.entityName() + ':' + entityInfo.uuid();
+            boolean withSnapshot = false;
+            if (isDelete) {
+                snapshotPolicy.forget(key);
+            } else {
+                withSnapshot = snapshotPolicy.recordSnapshot(key);
+            }
+            rateLimiter.admitInsertOrDelete(entityInfo);
+            long start = System.nanoTime();
+            Map<String, Object> baseEntity = snapshotOf(plan, id, state, entityInfo);
+            byte[] payload = payloadWriter.writeValueAsBytes(baseEntity);
+            // the snapshot is what marks the row as a full state for point-in-time reconstruction
+            byte[] snapshot = withSnapshot
+                    ? payloadWriter.writeValueAsBytes(flatSnapshotOf(plan, id, state, entityInfo)) : null;
+            auditMetrics.recordSerialize(entityInfo.entityName(), entityInfo.tenantId(), System.nanoTime() - start,
+                    payload.length + (snapshot == null ? 0 : snapshot.length));
+            rateLimiter.submit(new AuditMessage(entityInfo.tenantId(), entityInfo.entityName(), entityInfo.uuid(),
+                    entityInfo.tableName(), payload, "", isDelete, entityInfo.updatedBy(), snapshot));
             log.debug("Updating {}", baseEntity);
 
         } catch (Throwable e) {
-            log.debug("Error auditing ", e);
+            auditMetrics.error("listener", entityInfo.entityName(), entityInfo.tenantId());
+            log.error("Error auditing {} of {} {}", isDelete ? "delete" : "insert", entityInfo.entityName(),
+                    entityInfo.uuid(), e);
+        }
+    }
+
+    /**
+     * Saves an update diff, together with a full snapshot of the new state when the
+     * {@link SnapshotPolicy} asks for one.
+     */
+    private void saveUpdate(Map<String, Object> changes, AuditPlan plan, Object id, Object[] state,
+                            EntityInfo entityInfo) {
+        try {
+            long start = System.nanoTime();
+            byte[] payload = payloadWriter.writeValueAsBytes(changes);
+            String key = entityInfo.entityName() + ':' + entityInfo.uuid();
+            byte[] snapshot = snapshotPolicy.recordUpdate(key, payload.length)
+                    ? payloadWriter.writeValueAsBytes(flatSnapshotOf(plan, id, state, entityInfo)) : null;
+            auditMetrics.recordSerialize(entityInfo.entityName(), entityInfo.tenantId(), System.nanoTime() - start,
+                    payload.length + (snapshot == null ? 0 : snapshot.length));
+            rateLimiter.submit(new AuditMessage(entityInfo.tenantId(), entityInfo.entityName(), entityInfo.uuid(),
+                    entityInfo.tableName(), payload, "", false, entityInfo.updatedBy(), snapshot));
+            log.debug("Updating {}", changes);
+        } catch (Throwable e) {
+            auditMetrics.error("listener", entityInfo.entityName(), entityInfo.tenantId());
+            log.error("Error auditing update of {} {}", entityInfo.entityName(), entityInfo.uuid(), e);
         }
     }
 
     @Override
     public void onPostDelete(PostDeleteEvent event) {
-        saveAudit(event.getEntity(), true, getEntityInfo(event.getEntity()));
+        AuditPlan plan = auditPlans.get(event.getPersister().getMappedClass());
+        if (plan == null || plan.isExcluded()) return;
+        EntityInfo entityInfo = getEntityInfo(plan, event.getEntity());
+        if (plan.rules(entityInfo.tenantId()).isExcluded()) return;
+        long start = System.nanoTime();
+        try {
+            var buffer = transactionBuffer();
+            if (buffer != null) {
+                buffer.delete(entityInfo, event.getPersister(), event.getId(), event.getDeletedState());
+                return;
+            }
+            Object id = event.getId();
+            if (postCommit) {
+                // serialized later, after the caller may have changed the entity again
+                Object[] state = plan.copyState(event.getDeletedState());
+                auditExecutor.execute(entityInfo.uuid(), () -> saveAudit(plan, id, state, true, entityInfo));
+                return;
+            }
+            saveAudit(plan, id, event.getDeletedState(), true, entityInfo);
+        } finally {
+            auditMetrics.recordListener("delete", plan.getEntityName(), entityInfo.tenantId(),
+                    System.nanoTime() - start);
+        }
     }
 
-    private EntityInfo getEntityInfo(Object baseEntity) {
-        String simpleName = baseEntity.getClass().getSimpleName();
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        log.debug("Transaction did not commit, skipping audit of {}", event.getEntity().getClass().getSimpleName());
+    }
 
-        String tableName;
-        var table = baseEntity.getClass().getAnnotation(Table.class);
-        if (table != null) {
-            tableName = table.name();
-        } else {
-            var entity = baseEntity.getClass().getAnnotation(Entity.class);
-            tableName = entity.name();
-        }
-        if (excludedEntities.contains(simpleName)) {
-            return null;
-        }
+    private EntityInfo getEntityInfo(AuditPlan plan, Object baseEntity) {
         AbstractBaseEntity entity = (AbstractBaseEntity) baseEntity;
-        return new EntityInfo(tableName, simpleName, entity.getUuid().toString(), entity.getTenantId(), entity.getUpdatedBy());
+        return new EntityInfo(plan.getTableName(), plan.getEntityName(), entity.getUuid().toString(), entity.getTenantId(), entity.getUpdatedBy());
     }
 
     public String camelCaseToTitleCase(String camelCase) {
@@ -0,0 +1,172 @@
+package com.example.accessingdatajpa.audit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of every audit pipeline stage, tagged by {@code entity} and {@code tenant}. Uses
+ * the application's {@link MeterRegistry} when there is one (e.g. with Spring Boot Actuator) and the
+ * global registry otherwise.
+ * <p>
+ * Stages that work on a whole batch (database write, latest-flag update) cannot be split by entity;
+ * they are tagged by write mode instead, and {@code audit.rows.written} counts the rows per entity
+ * and tenant.
+ */
+@Component
+public class AuditMetrics {
+
+    private static final String ENTITY = "entity";
+    private static final String TENANT = "tenant";
+
+    private final MeterRegistry registry;
+    private final Meter.MeterProvider<Timer> listenerTime;
+    private final Meter.MeterProvider<Timer> flattenTime;
+    private final Meter.MeterProvider<Timer> diffTime;
+    private final Meter.MeterProvider<Timer> serializeTime;
+    private final Meter.MeterProvider<Timer> queueWait;
+    private final Meter.MeterProvider<Timer> writeTime;
+    private final Timer latestTime;
+    private final Meter.MeterProvider<DistributionSummary> payloadBytes;
+    private final Meter.MeterProvider<DistributionSummary> diffEntries;
+    private final Meter.MeterProvider<Counter> rowsWritten;
+    private final Meter.MeterProvider<Counter> errors;
+    private final Meter.MeterProvider<Counter> partial;
+    private final Meter.MeterProvider<Counter> dropped;
+    private final Meter.MeterProvider<Counter> rateLimited;
+
+    @Autowired
+    public AuditMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        this(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    AuditMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.listenerTime = Timer.builder("audit.listener.duration")
+                .description("Time spent in the Hibernate event listener, including inline diffing")
+                .withRegistry(registry);
+        this.flattenTime = Timer.builder("audit.flatten.duration")
+                .description("Time spent walking complex property values of an update")
+                .withRegistry(registry);
+        this.diffTime = Timer.builder("audit.diff.duration")
+                .description("Time spent diffing an update, walking included")
+                .withRegistry(registry);
+        this.serializeTime = Timer.builder("audit.serialize.duration")
+                .description("Time spent serializing an audit payload to JSON")
+                .withRegistry(registry);
+        this.queueWait = Timer.builder("audit.queue.wait")
+                .description("Time an audit waited in the writer queue or spool")
+                .withRegistry(registry);
+        this.writeTime = Timer.builder("audit.write.duration")
+                .description("Time spent writing one batch of audit rows, latest-flag update included")
+                .withRegistry(registry);
+        this.latestTime = Timer.builder("audit.latest.duration")
+                .description("Time spent retiring the previous latest rows of one batch")
+                .register(registry);
+        this.payloadBytes = DistributionSummary.builder("audit.payload.bytes")
+                .description("Size of an audit payload")
+                .baseUnit("bytes")
+                .withRegistry(registry);
+        this.diffEntries = DistributionSummary.builder("audit.diff.entries")
+                .description("Number of changed paths in an update audit")
+                .withRegistry(registry);
+        this.rowsWritten = Counter.builder("audit.rows.written")
+                .description("Audit rows written to the database")
+                .withRegistry(registry);
+        this.errors = Counter.builder("audit.errors")
+                .description("Audits lost because a pipeline stage failed, by stage")
+                .withRegistry(registry);
+        this.partial = Counter.builder("audit.partial")
+                .description("Audits written without part of the change because a pipeline stage failed, by stage")
+                .withRegistry(registry);
+        this.dropped = Counter.builder("audit.dropped")
+                .description("Audits dropped because the writer queue was full")
+                .withRegistry(registry);
+        this.rateLimited = Counter.builder("audit.rate.limited")
+                .description("Audits deferred, merged or shed by the rate limiter")
+                .withRegistry(registry);
+    }
+
+    public void recordListener(String event, String entity, String tenant, long nanos) {
+        listenerTime.withTags("event", event, ENTITY, entity, TENANT, tag(tenant)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordFlatten(String entity, String tenant, long nanos) {
+        flattenTime.withTags(ENTITY, entity, TENANT, tag(tenant)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDiff(String entity, String tenant, long nanos, int entries) {
+        diffTime.withTags(ENTITY, entity, TENANT, tag(tenant)).record(nanos, TimeUnit.NANOSECONDS);
+        diffEntries.withTags(ENTITY, entity, TENANT, tag(tenant)).record(entries);
+    }
+
+    public void recordSerialize(String entity, String tenant, long nanos, int bytes) {
+        serializeTime.withTags(ENTITY, entity, TENANT, tag(tenant)).record(nanos, TimeUnit.NANOSECONDS);
+        payloadBytes.withTags(ENTITY, entity, TENANT, tag(tenant)).record(bytes);
+    }
+
+    public void recordQueueWait(String entity, String tenant, long nanos) {
+        queueWait.withTags(ENTITY, entity, TENANT, tag(tenant)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordWrite(String mode, long nanos) {
+        writeTime.withTags("mode", mode).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLatest(long nanos) {
+        latestTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void rowWritten(String entity, String tenant) {
+        rowsWritten.withTags(ENTITY, entity, TENANT, tag(tenant)).increment();
+    }
+
+    /**
+     * Counts an audit that failed at {@code stage} and was therefore not written.
+     */
+    public void error(String stage, String entity, String tenant) {
+        errors.withTags("stage", stage, ENTITY, entity, TENANT, tag(tenant)).increment();
+    }
+
+    /**
+     * Counts an audit that is still written but misses the part of the change that failed at
+     * {@code stage}.
+     */
+    public void partial(String stage, String entity, String tenant) {
+        partial.withTags("stage", stage, ENTITY, entity, TENANT, tag(tenant)).increment();
+    }
+
+    public void dropped(String entity, String tenant) {
+        dropped.withTags(ENTITY, entity, TENANT, tag(tenant)).increment();
+    }
+
+    /**
+     * Counts an audit degraded by the rate limiter; {@code outcome} is deferred, merged or shed.
+     */
+    public void rateLimited(String outcome, String entity, String tenant) {
+        rateLimited.withTags("outcome", outcome, ENTITY, entity, TENANT, tag(tenant)).increment();
+    }
+
+    public <T> void gauge(String name, String description, T object, ToDoubleFunction<T> value) {
+        Gauge.builder(name, object, value).description(description).register(registry);
+    }
+
+    public <T> void counter(String name, String description, T object, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, object, value).description(description).register(registry);
+    }
+
+    private static String tag(String tenant) {
+        return tenant == null ? "none" : tenant;
+    }
+}
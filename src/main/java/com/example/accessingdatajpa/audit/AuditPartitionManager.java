@@ -0,0 +1,221 @@
+package com.example.accessingdatajpa.audit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains the monthly range partitions of {@code ctrm_audit_log_v2} on PostgreSQL. Partitions are
+ * created {@code audit.partitioning.premake-months} ahead of the current month, optionally hash
+ * sub-partitioned by tenant, and partitions entirely older than {@code audit.partitioning.retention}
+ * are detached and dropped instead of deleting their rows. Rows that landed in the default partition
+ * because their month had no partition yet are moved into the month's partition when it is created.
+ * <p>
+ * The table is converted to a partitioned one by the changesets of the Liquibase {@code partitioning}
+ * context; until then, and on other databases, the manager logs a warning and does nothing.
+ */
+@Slf4j
+@Component
+public class AuditPartitionManager {
+
+    static final String TABLE = "ctrm_audit_log_v2";
+    static final String DEFAULT_PARTITION = TABLE + "_default";
+
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern PARTITION = Pattern.compile(TABLE + "_p(\\d{6})");
+    private static final String PARTITIONS_SQL = "select c.relname from pg_inherits i " +
+            "join pg_class c on c.oid = i.inhrelid join pg_class p on p.oid = i.inhparent " +
+            "where p.relname = ? and pg_table_is_visible(p.oid)";
+    private static final String HAS_DEFAULT_ROWS_SQL = "select exists (select 1 from " + DEFAULT_PARTITION +
+            " where created_timestamp >= ? and created_timestamp < ?)";
+    private static final String IS_PARTITIONED_SQL = "select count(*) from pg_partitioned_table t " +
+            "join pg_class c on c.oid = t.partrelid where c.relname = ? and pg_table_is_visible(c.oid)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AuditProperties.Partitioning properties;
+    private ScheduledExecutorService scheduler;
+
+    public AuditPartitionManager(JdbcTemplate jdbcTemplate, AuditProperties auditProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = auditProperties.getPartitioning();
+    }
+
+    @PostConstruct
+    void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "audit-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, properties.getCheckInterval().toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates the upcoming partitions and drops the expired ones.
+     */
+    public void maintain() {
+        try {
+            if (!isPartitioned()) {
+                log.warn("{} is not a partitioned table, skipping partition maintenance", TABLE);
+                return;
+            }
+            List<String> partitions = jdbcTemplate.queryForList(PARTITIONS_SQL, String.class, TABLE);
+            boolean hasDefault = partitions.contains(DEFAULT_PARTITION);
+            for (YearMonth month : monthsToCreate(partitions, YearMonth.now(), properties.getPremakeMonths())) {
+                if (hasDefault && hasDefaultRows(month)) {
+                    log.info("Moving the {} rows of the default audit partition into {}", month, partitionName(month));
+                    jdbcTemplate.execute(moveStatement(month, properties.getTenantPartitions()));
+                    continue;
+                }
+                for (String statement : createStatements(month, properties.getTenantPartitions())) {
+                    log.info("Creating audit partition: {}", statement);
+                    jdbcTemplate.execute(statement);
+                }
+            }
+            if (properties.getRetention() != null) {
+                YearMonth cutoff = YearMonth.from(LocalDate.now().minus(properties.getRetention()));
+                for (String partition : expired(partitions, cutoff)) {
+                    log.info("Dropping expired audit partition {}", partition);
+                    jdbcTemplate.execute("alter table " + TABLE + " detach partition " + partition);
+                    jdbcTemplate.execute("drop table " + partition);
+                }
+            }
+        } catch (DataAccessException e) {
+            log.error("Audit partition maintenance failed", e);
+        }
+    }
+
+    private boolean hasDefaultRows(YearMonth month) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(HAS_DEFAULT_ROWS_SQL, Boolean.class,
+                Timestamp.valueOf(month.atDay(1).atStartOfDay()),
+                Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay())));
+    }
+
+    private boolean isPartitioned() {
+        try {
+            Integer count = jdbcTemplate.queryForObject(IS_PARTITIONED_SQL, Integer.class, TABLE);
+            return count != null && count > 0;
+        } catch (DataAccessException e) {
+            // not PostgreSQL
+            return false;
+        }
+    }
+
+    static String partitionName(YearMonth month) {
+        return TABLE + "_p" + month.format(MONTH);
+    }
+
+    static Optional<YearMonth> monthOf(String partition) {
+        Matcher matcher = PARTITION.matcher(partition);
+        return matcher.matches() ? Optional.of(YearMonth.parse(matcher.group(1), MONTH)) : Optional.empty();
+    }
+
+    /**
+     * DDL creating the monthly partitions after the newest existing one, up to {@code premakeMonths}
+     * after {@code current}. Without monthly partitions it starts at {@code current}. Earlier months
+     * are never created, since they may be covered by the legacy partition.
+     */
+    static List<String> createStatements(Collection<String> partitions, YearMonth current, int premakeMonths,
+                                         int tenantPartitions) {
+        List<String> statements = new ArrayList<>();
+        for (YearMonth month : monthsToCreate(partitions, current, premakeMonths)) {
+            statements.addAll(createStatements(month, tenantPartitions));
+        }
+        return statements;
+    }
+
+    static List<YearMonth> monthsToCreate(Collection<String> partitions, YearMonth current, int premakeMonths) {
+        YearMonth month = partitions.stream().map(AuditPartitionManager::monthOf).flatMap(Optional::stream)
+                .max(YearMonth::compareTo)
+                .map(newest -> newest.plusMonths(1))
+                .orElse(current);
+        List<YearMonth> months = new ArrayList<>();
+        for (YearMonth until = current.plusMonths(premakeMonths); !month.isAfter(until); month = month.plusMonths(1)) {
+            months.add(month);
+        }
+        return months;
+    }
+
+    static List<String> createStatements(YearMonth month, int tenantPartitions) {
+        String name = partitionName(month);
+        List<String> statements = new ArrayList<>();
+        statements.add("create table if not exists " + name + " partition of " + TABLE + " " + bounds(month) +
+                (tenantPartitions > 0 ? " partition by hash (tenant_id)" : ""));
+        statements.addAll(tenantStatements(name, tenantPartitions));
+        return statements;
+    }
+
+    /**
+     * A block creating the month's partition detached, moving the month's rows out of the default
+     * partition into it and attaching it, atomically. PostgreSQL refuses to create a partition whose
+     * range has rows in the default partition.
+     */
+    static String moveStatement(YearMonth month, int tenantPartitions) {
+        String name = partitionName(month);
+        String range = "created_timestamp >= '" + month.atDay(1) + "' and created_timestamp < '" +
+                month.plusMonths(1).atDay(1) + "'";
+        StringBuilder block = new StringBuilder("do $$ begin ");
+        block.append("create table ").append(name).append(" (like ").append(TABLE).append(" including defaults)")
+                .append(tenantPartitions > 0 ? " partition by hash (tenant_id)" : "").append("; ");
+        for (String statement : tenantStatements(name, tenantPartitions)) {
+            block.append(statement).append("; ");
+        }
+        block.append("insert into ").append(name).append(" select * from ").append(DEFAULT_PARTITION)
+                .append(" where ").append(range).append("; ");
+        block.append("delete from ").append(DEFAULT_PARTITION).append(" where ").append(range).append("; ");
+        block.append("alter table ").append(TABLE).append(" attach partition ").append(name).append(' ')
+                .append(bounds(month)).append("; ");
+        return block.append("end $$").toString();
+    }
+
+    private static List<String> tenantStatements(String name, int tenantPartitions) {
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < tenantPartitions; i++) {
+            statements.add("create table if not exists " + name + "_t" + i + " partition of " + name +
+                    " for values with (modulus " + tenantPartitions + ", remainder " + i + ")");
+        }
+        return statements;
+    }
+
+    private static String bounds(YearMonth month) {
+        return "for values from ('" + month.atDay(1) + "') to ('" + month.plusMonths(1).atDay(1) + "')";
+    }
+
+    /**
+     * Monthly partitions whose whole range is before {@code cutoff}.
+     */
+    static List<String> expired(Collection<String> partitions, YearMonth cutoff) {
+        return partitions.stream()
+                .filter(partition -> monthOf(partition).filter(month -> month.isBefore(cutoff)).isPresent())
+                .sorted()
+                .toList();
+    }
+}
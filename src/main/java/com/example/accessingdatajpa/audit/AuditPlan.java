@@ -0,0 +1,232 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.model.AbstractBaseEntity;
+import com.google.common.primitives.Primitives;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metamodel.mapping.BasicValuedModelPart;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.SqlTypes;
+import org.hibernate.type.Type;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Audit metadata of one entity class, compiled once from the Hibernate metamodel so the listener does
+ * no annotation lookups or name comparisons per event. The metadata is immutable; the per-tenant
+ * {@link AuditRules} are recompiled and swapped in on reload.
+ */
+@Getter
+public final class AuditPlan {
+
+    private final String entityName;
+    private final String tableName;
+    /**
+     * Not an {@link AbstractBaseEntity}, so never audited. Exclusions by name are part of the {@link AuditRules}.
+     */
+    private final boolean excluded;
+    private final String identifierName;
+    private final String[] propertyNames;
+    private final PropertyKind[] propertyKinds;
+    private final BitSet keyFields;
+    /**
+     * Properties stored as JSON, e.g. {@code jsonb} columns.
+     */
+    @Getter(AccessLevel.NONE)
+    private final BitSet jsonFields;
+    @Getter(AccessLevel.NONE)
+    private final Type[] propertyTypes;
+    @Getter(AccessLevel.NONE)
+    private final SessionFactoryImplementor factory;
+    @Getter(AccessLevel.NONE)
+    private volatile AuditRules.Compiled rules;
+
+    private AuditPlan(String entityName, String tableName, boolean excluded, String identifierName,
+                      String[] propertyNames, PropertyKind[] propertyKinds, BitSet keyFields, BitSet jsonFields,
+                      Type[] propertyTypes, SessionFactoryImplementor factory) {
+        this.entityName = entityName;
+        this.tableName = tableName;
+        this.excluded = excluded;
+        this.identifierName = identifierName;
+        this.propertyNames = propertyNames;
+        this.propertyKinds = propertyKinds;
+        this.keyFields = keyFields;
+        this.jsonFields = jsonFields;
+        this.propertyTypes = propertyTypes;
+        this.factory = factory;
+    }
+
+    static AuditPlan of(EntityPersister persister, AuditProperties auditProperties) {
+        Class<?> type = persister.getMappedClass();
+        String entityName = type.getSimpleName();
+
+        String tableName;
+        var table = type.getAnnotation(Table.class);
+        if (table != null) {
+            tableName = table.name();
+        } else {
+            var entity = type.getAnnotation(Entity.class);
+            tableName = entity == null ? "" : entity.name();
+        }
+        boolean excluded = !AbstractBaseEntity.class.isAssignableFrom(type);
+
+        String[] propertyNames = persister.getPropertyNames();
+        var propertyTypes = persister.getPropertyTypes();
+        PropertyKind[] kinds = new PropertyKind[propertyNames.length];
+        BitSet keyFields = indexesOf(propertyNames, auditProperties.getKeyFields());
+        BitSet jsonFields = new BitSet(propertyNames.length);
+        for (int i = 0; i < propertyNames.length; i++) {
+            kinds[i] = PropertyKind.of(propertyTypes[i].getReturnedClass());
+            if (persister.findAttributeMapping(propertyNames[i]) instanceof BasicValuedModelPart basic
+                    && basic.getJdbcMapping().getJdbcType().getDefaultSqlTypeCode() == SqlTypes.JSON) {
+                jsonFields.set(i);
+            }
+        }
+        var plan = new AuditPlan(entityName, tableName, excluded, persister.getIdentifierPropertyName(),
+                propertyNames, kinds, keyFields, jsonFields, propertyTypes, persister.getFactory());
+        plan.compileRules(auditProperties);
+        return plan;
+    }
+
+    void compileRules(AuditProperties auditProperties) {
+        rules = AuditRules.compile(entityName, propertyNames, auditProperties);
+    }
+
+    /**
+     * What is audited of this entity for the tenant.
+     */
+    public AuditRules rules(String tenantId) {
+        return rules.forTenant(tenantId);
+    }
+
+    /**
+     * Copy of a flushed state that shares no mutable value with the live entity, for audits diffed after
+     * the entity may have changed again. Embedded values and JSON-mapped objects are copied by their
+     * Hibernate type; collections, which Hibernate does not copy, are copied element by element unless
+     * they were never loaded.
+     */
+    Object[] copyState(Object[] state) {
+        Object[] copy = new Object[state.length];
+        for (int i = 0; i < state.length; i++) {
+            Object value = state[i];
+            if (value == null || !propertyTypes[i].isMutable()) {
+                copy[i] = value;
+            } else if (propertyTypes[i] instanceof CollectionType collectionType) {
+                copy[i] = copyCollection(collectionType, value);
+            } else {
+                copy[i] = propertyTypes[i].deepCopy(value, factory);
+            }
+        }
+        return copy;
+    }
+
+    private Object copyCollection(CollectionType collectionType, Object value) {
+        if (value instanceof PersistentCollection<?> collection && !collection.wasInitialized()) {
+            return value;
+        }
+        Type elementType = collectionType.getElementType(factory);
+        if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            map.forEach((key, element) -> copy.put(key, elementType.deepCopy(element, factory)));
+            return copy;
+        }
+        if (value instanceof Collection<?> collection) {
+            Collection<Object> copy = value instanceof Set ? new LinkedHashSet<>() : new ArrayList<>();
+            for (Object element : collection) {
+                copy.add(elementType.deepCopy(element, factory));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static BitSet indexesOf(String[] propertyNames, Set<String> names) {
+        BitSet indexes = new BitSet(propertyNames.length);
+        for (int i = 0; i < propertyNames.length; i++) {
+            if (names.contains(propertyNames[i])) {
+                indexes.set(i);
+            }
+        }
+        return indexes;
+    }
+
+    public boolean isKeyField(int index) {
+        return keyFields.get(index);
+    }
+
+    public boolean isJsonField(int index) {
+        return jsonFields.get(index);
+    }
+
+    /**
+     * How a property is compared and rendered, decided from its mapped Java type.
+     */
+    public enum PropertyKind {
+        /**
+         * Primitives, wrappers, strings and dates: compared with {@code equals}, rendered as {@code old->new}.
+         */
+        SIMPLE,
+        /**
+         * {@link LocalDateTime}: equal when within a millisecond, which absorbs database precision loss.
+         */
+        TIMESTAMP {
+            @Override
+            public boolean isEffectivelyEqual(Object oldValue, Object newValue) {
+                if (oldValue == newValue) return true;
+                if (oldValue == null || newValue == null) return false;
+                return Math.abs(ChronoUnit.MILLIS.between((LocalDateTime) oldValue, (LocalDateTime) newValue)) < 1;
+            }
+        },
+        /**
+         * Embedded objects, collections, maps and JSON-mapped values: flattened and diffed.
+         */
+        COMPLEX,
+        /**
+         * Declared type too generic to decide up front; decided from the runtime values.
+         */
+        DYNAMIC {
+            @Override
+            public boolean isEffectivelyEqual(Object oldValue, Object newValue) {
+                if (oldValue instanceof LocalDateTime && newValue instanceof LocalDateTime) {
+                    return TIMESTAMP.isEffectivelyEqual(oldValue, newValue);
+                }
+                return super.isEffectivelyEqual(oldValue, newValue);
+            }
+        };
+
+        public boolean isEffectivelyEqual(Object oldValue, Object newValue) {
+            if (oldValue == newValue) return true;
+            if (oldValue == null || newValue == null) return false;
+            return oldValue.equals(newValue);
+        }
+
+        static PropertyKind of(Class<?> type) {
+            if (type == LocalDateTime.class) {
+                return TIMESTAMP;
+            }
+            if (type.isPrimitive() || Primitives.isWrapperType(type) || type == String.class
+                    || Date.class.isAssignableFrom(type) || Calendar.class.isAssignableFrom(type)) {
+                return SIMPLE;
+            }
+            if (type == Object.class || type == Number.class || type == Comparable.class || type == java.io.Serializable.class) {
+                return DYNAMIC;
+            }
+            return COMPLEX;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.accessingdatajpa.audit;
+
+import org.hibernate.metamodel.MappingMetamodel;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-class lookup of {@link AuditPlan}s. Plans are compiled when the listener is registered and
+ * cached in a {@link ClassValue}, so finding the plan of an entity costs a single pointer chase.
+ */
+@Component
+public class AuditPlans {
+
+    private final AuditProperties auditProperties;
+    private volatile MappingMetamodel metamodel;
+
+    private final ClassValue<AuditPlan> plans = new ClassValue<>() {
+        @Override
+        protected AuditPlan computeValue(Class<?> type) {
+            EntityPersister persister = metamodel.findEntityDescriptor(type);
+            return persister == null ? null : AuditPlan.of(persister, auditProperties);
+        }
+    };
+
+    public AuditPlans(AuditProperties auditProperties) {
+        this.auditProperties = auditProperties;
+    }
+
+    /**
+     * Compiles the plan of every mapped entity.
+     */
+    void compile(MappingMetamodel metamodel) {
+        this.metamodel = metamodel;
+        metamodel.forEachEntityDescriptor(persister -> plans.get(persister.getMappedClass()));
+    }
+
+    /**
+     * Recompiles the audit rules of every entity from the current {@link AuditProperties}, e.g. after
+     * the tenant rules were changed at runtime.
+     */
+    public void reload() {
+        MappingMetamodel metamodel = this.metamodel;
+        if (metamodel != null) {
+            metamodel.forEachEntityDescriptor(persister -> {
+                AuditPlan plan = plans.get(persister.getMappedClass());
+                if (plan != null) {
+                    plan.compileRules(auditProperties);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the plan of an entity class, or {@code null} if the class is not a mapped entity.
+     */
+    public AuditPlan get(Class<?> type) {
+        return metamodel == null ? null : plans.get(type);
+    }
+}
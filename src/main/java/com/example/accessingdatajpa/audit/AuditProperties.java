@@ -0,0 +1,373 @@
+package com.example.accessingdatajpa.audit;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Period;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tuning knobs for the audit pipeline, bound from the {@code audit.*} namespace.
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "audit")
+public class AuditProperties {
+
+    /**
+     * Register the audit listener with Hibernate. When disabled no entity change is audited.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Defer diffing and persistence until the business transaction has committed, using Hibernate's
+     * post-commit listener hooks. Audits of rolled-back transactions are then never written.
+     */
+    private boolean postCommit = false;
+
+    /**
+     * Merge all changes made to an entity within one transaction into a single audit record,
+     * emitted when the transaction commits. Off by default, as it turns the audit trail from one record
+     * per flush into one per transaction.
+     */
+    private boolean coalesce = false;
+
+    /**
+     * Entities (by simple class name) that are never audited, for any tenant.
+     */
+    private Set<String> excludedEntities = Set.of("AuditLog", "HttpTraceAuditLog");
+
+    /**
+     * Properties recorded with their new value instead of an {@code old->new} diff.
+     */
+    private Set<String> keyFields = Set.of("tradeId");
+
+    /**
+     * Properties whose changes are never audited, for any tenant.
+     */
+    private Set<String> ignoredFields = Set.of();
+
+    /**
+     * How JSON-mapped ({@code jsonb}) properties are diffed on update.
+     */
+    private JsonDiffMode jsonDiffMode = JsonDiffMode.OBJECT;
+
+    /**
+     * Additional audit rules per tenant id. Tenants without an entry follow the global settings only.
+     * Changes take effect on {@link AuditPlans#reload()}.
+     */
+    private Map<String, TenantRules> tenants = new HashMap<>();
+
+    private Writer writer = new Writer();
+
+    private Executor executor = new Executor();
+
+    private Spool spool = new Spool();
+
+    private Partitioning partitioning = new Partitioning();
+
+    private Snapshot snapshot = new Snapshot();
+
+    private RateLimit rateLimit = new RateLimit();
+
+    @Getter
+    @Setter
+    public static class Writer {
+        /**
+         * Maximum number of audit messages waiting to be written.
+         */
+        private int queueCapacity = 10_000;
+        /**
+         * Maximum number of rows sent to the database in one JDBC batch.
+         */
+        private int batchSize = 200;
+        /**
+         * How long the writer waits for a batch to fill up once the first message arrives.
+         */
+        private Duration linger = Duration.ofMillis(50);
+        /**
+         * What to do with a message when the queue is full.
+         */
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        /**
+         * How long {@link OverflowPolicy#BLOCK} waits for space before the message is dropped.
+         */
+        private Duration blockTimeout = Duration.ofSeconds(1);
+        /**
+         * Batches of at least this many rows are written with {@code COPY ... FROM STDIN} instead of
+         * batched inserts when the database is PostgreSQL. {@code 0} disables COPY.
+         */
+        private int copyThreshold = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Executor {
+        /**
+         * Number of single-threaded lanes. Each entity is always handled by the same lane.
+         */
+        private int threads = 2;
+        /**
+         * Run lanes on virtual threads when the JVM supports them (Java 21+).
+         */
+        private boolean virtualThreads = true;
+        /**
+         * Audit tasks allowed to wait for a lane, across all lanes.
+         */
+        private int queueCapacity = 10_000;
+        /**
+         * Maximum number of audit database writes running at the same time.
+         */
+        private int maxConcurrentWriters = 2;
+        /**
+         * What to do with a task when its lane is full.
+         */
+        private SaturationPolicy saturationPolicy = SaturationPolicy.BLOCK;
+        /**
+         * How long {@link SaturationPolicy#BLOCK} and {@link SaturationPolicy#DISCARD} wait for space
+         * before the task is parked or dropped.
+         */
+        private Duration blockTimeout = Duration.ofMillis(100);
+        /**
+         * Audit tasks allowed to be parked outside the lanes, across all lanes. Callers wait once their
+         * lane has this share parked.
+         */
+        private int spillCapacity = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Spool {
+        /**
+         * Append audit messages to a local write-ahead spool and replay them into the database from
+         * there, instead of holding them in memory. Replaces the writer queue and its overflow policy.
+         */
+        private boolean enabled = false;
+        /**
+         * Directory holding the spool segments and the replay checkpoint.
+         */
+        private Path directory = Path.of("audit-spool");
+        /**
+         * Size of one memory-mapped segment file. A single message must fit in one segment.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        /**
+         * Force every append to disk. Without it spooled messages survive a JVM crash but not a host crash.
+         */
+        private boolean fsync = false;
+        /**
+         * Longest pause between replay attempts while the database is unavailable.
+         */
+        private Duration maxRetryDelay = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Partitioning {
+        /**
+         * Create upcoming monthly partitions of {@code ctrm_audit_log_v2} and drop expired ones.
+         * Needs the partitioned table created by the changesets of the Liquibase {@code partitioning}
+         * context, which only run when that context is enabled.
+         */
+        private boolean enabled = false;
+        /**
+         * Number of monthly partitions kept ready ahead of the current month.
+         */
+        private int premakeMonths = 3;
+        /**
+         * Hash sub-partitions by tenant created under each new monthly partition, {@code 0} for none.
+         * Needs the {@code tenant_id} column of {@code 006-audit-tenant-id.sql}.
+         */
+        private int tenantPartitions = 0;
+        /**
+         * Monthly partitions entirely older than this are dropped. Unset keeps everything.
+         */
+        private Period retention;
+        /**
+         * How often partitions are checked.
+         */
+        private Duration checkInterval = Duration.ofHours(6);
+        /**
+         * How far back the writer first looks for the current latest row of an entity, so the lookup
+         * touches only the recent partitions. Entities not found there are searched in all of them.
+         * {@code 0} always searches everything; unset means 31 days with partitioning enabled and
+         * {@code 0} otherwise, where the extra lookup would only cost a second update.
+         */
+        private Duration latestLookback;
+
+        public Duration getLatestLookback() {
+            if (latestLookback != null) {
+                return latestLookback;
+            }
+            return enabled ? Duration.ofDays(31) : Duration.ZERO;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Snapshot {
+        /**
+         * Store a full snapshot of the entity with some of its update audits, bounding point-in-time
+         * reconstruction.
+         */
+        private boolean enabled = true;
+        /**
+         * Maximum number of update diffs between two snapshots of an entity.
+         */
+        private int everyVersions = 20;
+        /**
+         * Maximum size of the update diffs between two snapshots of an entity.
+         */
+        private DataSize everyBytes = DataSize.ofKilobytes(64);
+        /**
+         * Number of entities whose diff chains are tracked in memory.
+         */
+        private int trackedEntities = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class RateLimit {
+        /**
+         * Limit the rate of audits per tenant and per entity type, degrading the excess according to
+         * {@code overflow-policy}.
+         */
+        private boolean enabled = false;
+        /**
+         * Audits per second allowed for each tenant, {@code 0} for no limit.
+         */
+        private double tenantRate = 500;
+        /**
+         * Audits per second of individual tenants, overriding {@code tenant-rate}.
+         */
+        private Map<String, Double> tenantRates = new HashMap<>();
+        /**
+         * Audits per second allowed for an entity type (by simple class name) of each tenant.
+         * Entity types without an entry are not limited.
+         */
+        private Map<String, Double> entityRates = new HashMap<>();
+        /**
+         * How long a limit can be exceeded after a quiet period; bucket capacity is rate times burst.
+         */
+        private Duration burst = Duration.ofSeconds(5);
+        /**
+         * What to do with audits over the limit.
+         */
+        private RateLimitPolicy overflowPolicy = RateLimitPolicy.COALESCE;
+        /**
+         * Entity types whose updates {@link RateLimitPolicy#SAMPLE} may shed.
+         */
+        private Set<String> lowPriorityEntities = Set.of();
+        /**
+         * Fraction of the over-limit updates of low-priority entity types still audited by
+         * {@link RateLimitPolicy#SAMPLE}.
+         */
+        private double sampleRate = 0.01;
+        /**
+         * Maximum number of entities with a held update under {@link RateLimitPolicy#COALESCE}. Updates
+         * of further entities are audited immediately.
+         */
+        private int maxCoalesced = 100_000;
+        /**
+         * Directory of the spool holding audits deferred by {@link RateLimitPolicy#SPILL}.
+         */
+        private Path spillDirectory = Path.of("audit-spool", "overflow");
+        /**
+         * How often shed and deferred audits are reported in the log.
+         */
+        private Duration reportInterval = Duration.ofMinutes(1);
+    }
+
+    @Getter
+    @Setter
+    public static class TenantRules {
+        /**
+         * Entities audited for the tenant. Empty audits every entity that is not excluded.
+         */
+        private Set<String> includedEntities = Set.of();
+        /**
+         * Entities never audited for the tenant.
+         */
+        private Set<String> excludedEntities = Set.of();
+        /**
+         * Top-level properties audited for the tenant, as {@code Entity.property} or {@code *.property}.
+         * Entities without an entry audit all their properties.
+         */
+        private Set<String> includedProperties = Set.of();
+        /**
+         * Property paths never audited for the tenant, as {@code Entity.path} or {@code *.path}. Paths
+         * may reach into embedded values and collections, with {@code *} matching any collection index.
+         */
+        private Set<String> excludedProperties = Set.of();
+    }
+
+    public enum JsonDiffMode {
+        /**
+         * Walk the mapped Java values, comparing sets by element.
+         */
+        OBJECT,
+        /**
+         * Write both values as JSON tokens and compare the streams in lockstep, comparing lists by
+         * position and sets by element. Memory stays flat for large documents.
+         */
+        TOKENS
+    }
+
+    public enum RateLimitPolicy {
+        /**
+         * Write over-limit audits to a local spool, replayed at the allowed rate. Once a tenant has
+         * spilled audits, its further audits are spilled too so they stay in order.
+         */
+        SPILL,
+        /**
+         * Hold over-limit updates per entity and merge later updates of the same entity into them, as
+         * within a transaction; they are audited as one change when the limit allows. Inserts and
+         * deletes are never held.
+         */
+        COALESCE,
+        /**
+         * Audit only {@code sample-rate} of the over-limit updates of low-priority entity types; the
+         * next audited update of a shed entity carries a full snapshot. Everything else is audited.
+         */
+        SAMPLE
+    }
+
+    public enum SaturationPolicy {
+        /**
+         * Wait up to {@code block-timeout} for space, then park the task as {@link #SPILL} does.
+         */
+        BLOCK,
+        /**
+         * Wait up to {@code block-timeout} for space, then drop the task, counted by
+         * {@code audit.executor.discarded}. The caller never runs the task itself, which would overtake
+         * the audits already queued for the entity.
+         */
+        DISCARD,
+        /**
+         * Park the task outside the lanes; it is resubmitted as its lane frees up. The caller only waits
+         * once the lane's share of {@code spill-capacity} is parked.
+         */
+        SPILL
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Wait up to {@code block-timeout} for space, slowing the caller down to the writer's pace, then
+         * drop the message. The caller never writes the message itself, which would race the writer
+         * thread for the entity's {@code latest} row.
+         */
+        BLOCK,
+        /**
+         * Drop the message immediately.
+         */
+        DROP
+    }
+}
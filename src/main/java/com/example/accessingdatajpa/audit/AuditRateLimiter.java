@@ -0,0 +1,513 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import com.example.accessingdatajpa.audit.domain.EntityInfo;
+import com.taomish.utils.JsonUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Token-bucket rate limits per tenant and per entity type of each tenant, sitting between the
+ * {@link AuditListener} and the {@link AuditService} so one tenant's burst of updates cannot starve
+ * everyone else's audits.
+ * Audits over the limit are degraded according to {@code audit.rate-limit.overflow-policy}, and every
+ * deferred, merged or shed audit is counted per tenant and entity type and reported in the log.
+ */
+@Slf4j
+@Component
+public class AuditRateLimiter {
+
+    private static final long DRAIN_PAUSE_MILLIS = 50;
+
+    private final AuditService auditService;
+    private final AuditExecutor auditExecutor;
+    private final SnapshotPolicy snapshotPolicy;
+    private final AuditMetrics auditMetrics;
+    private final AuditProperties.RateLimit properties;
+    private final int segmentSize;
+
+    private final Map<String, TokenBucket> tenantBuckets = new ConcurrentHashMap<>();
+    /**
+     * Buckets of {@code audit.rate-limit.entity-rates}, by {@code tenant/entity}.
+     */
+    private final Map<String, TokenBucket> entityBuckets = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> deferred = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> merged = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> shed = new ConcurrentHashMap<>();
+    /**
+     * Updates held by {@link AuditProperties.RateLimitPolicy#COALESCE}, by entity, oldest first.
+     */
+    private final LinkedHashMap<String, PendingUpdate> held = new LinkedHashMap<>();
+    /**
+     * Entities whose held update was taken out of {@link #held} and is being audited, guarded by
+     * {@code held}. Newer audits of these entities wait for it.
+     */
+    private final Set<String> releasing = new HashSet<>();
+    /**
+     * Entities whose held update was handed to the {@link AuditExecutor} lane of the entity and stays
+     * in {@link #held} until the lane takes it, guarded by {@code held}.
+     */
+    private final Set<String> scheduled = new HashSet<>();
+    /**
+     * Spilled audits of each tenant not yet replayed.
+     */
+    private final Map<String, AtomicLong> spillBacklog = new ConcurrentHashMap<>();
+
+    private volatile Consumer<PendingUpdate> updateEmitter;
+    private volatile BiFunction<AuditPlan, Object[], Object[]> stateCopier;
+    private volatile boolean running;
+    private Thread worker;
+    private AuditSpool spill;
+    private long reportedTotal;
+
+    public AuditRateLimiter(AuditService auditService, AuditExecutor auditExecutor, SnapshotPolicy snapshotPolicy,
+                            AuditMetrics auditMetrics, AuditProperties auditProperties) {
+        this.auditService = auditService;
+        this.auditExecutor = auditExecutor;
+        this.snapshotPolicy = snapshotPolicy;
+        this.auditMetrics = auditMetrics;
+        this.properties = auditProperties.getRateLimit();
+        this.segmentSize = (int) auditProperties.getSpool().getSegmentSize().toBytes();
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (properties.getOverflowPolicy() == AuditProperties.RateLimitPolicy.SPILL) {
+            spill = new AuditSpool(properties.getSpillDirectory(), segmentSize, false, JsonUtils.buildObjectMapper());
+            // audits spilled before a restart are still ahead of anything new of their tenant
+            spill.forEachPending(message -> spillBacklog.computeIfAbsent(tenantKey(message.getTenantId()),
+                    t -> new AtomicLong()).incrementAndGet());
+        }
+        auditMetrics.gauge("audit.rate.held", "Updates held by the rate limiter", this, AuditRateLimiter::getHeldCount);
+        auditMetrics.gauge("audit.rate.spilled.bytes", "Spilled audit bytes not yet replayed", this,
+                AuditRateLimiter::getSpilledBytes);
+        running = true;
+        worker = new Thread(this::drainLoop, "audit-rate-limiter");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        if (spill != null) {
+            spill.close();
+        }
+        report();
+    }
+
+    /**
+     * Sets where held updates go once the limit allows them, normally back to the listener's diff, and
+     * how their states are copied so they no longer share mutable values with the live entity.
+     */
+    void onHeldUpdate(Consumer<PendingUpdate> updateEmitter, BiFunction<AuditPlan, Object[], Object[]> stateCopier) {
+        this.updateEmitter = updateEmitter;
+        this.stateCopier = stateCopier;
+    }
+
+    /**
+     * Decides whether an update is diffed now. Returns {@code false} when it was held for later or shed.
+     */
+    boolean admitUpdate(PendingUpdate update) {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        return switch (properties.getOverflowPolicy()) {
+            // SPILL limits the finished messages in submit
+            case SPILL -> true;
+            case COALESCE -> coalesce(update);
+            case SAMPLE -> sample(update.entityInfo());
+        };
+    }
+
+    /**
+     * Called before an insert or delete is audited. These are never held or shed, but they use up
+     * tokens, and a held update of the same entity is audited first to keep the order.
+     */
+    void admitInsertOrDelete(EntityInfo entityInfo) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        switch (properties.getOverflowPolicy()) {
+            case SPILL -> {
+            }
+            case COALESCE -> {
+                PendingUpdate update;
+                synchronized (held) {
+                    awaitRelease(key(entityInfo));
+                    update = held.remove(key(entityInfo));
+                    if (update != null) {
+                        releasing.add(key(entityInfo));
+                    }
+                }
+                if (update != null) {
+                    release(update);
+                }
+                tryAcquire(entityInfo.tenantId(), entityInfo.entityName());
+            }
+            case SAMPLE -> tryAcquire(entityInfo.tenantId(), entityInfo.entityName());
+        }
+    }
+
+    /**
+     * Passes a finished audit on to the {@link AuditService}, or spills it under
+     * {@link AuditProperties.RateLimitPolicy#SPILL} when its tenant is over the limit or already has
+     * spilled audits waiting.
+     */
+    void submit(AuditMessage message) {
+        if (spill != null) {
+            AtomicLong backlog = spillBacklog.computeIfAbsent(tenantKey(message.getTenantId()), t -> new AtomicLong());
+            if (backlog.get() > 0 || !tryAcquire(message.getTenantId(), message.getEntity())) {
+                backlog.incrementAndGet();
+                try {
+                    spill.append(message);
+                    count(deferred, "deferred", message.getTenantId(), message.getEntity());
+                    return;
+                } catch (IOException e) {
+                    backlog.decrementAndGet();
+                    log.error("Unable to spill audit of {} {}, writing it directly", message.getEntity(),
+                            message.getEntityId(), e);
+                }
+            }
+        }
+        auditService.saveAudit(message);
+    }
+
+    private boolean coalesce(PendingUpdate update) {
+        EntityInfo entityInfo = update.entityInfo();
+        String key = key(entityInfo);
+        synchronized (held) {
+            awaitRelease(key);
+            PendingUpdate previous = held.get(key);
+            if (previous != null) {
+                held.put(key, previous.merge(update, stateCopier));
+                count(deferred, "deferred", entityInfo.tenantId(), entityInfo.entityName());
+                count(merged, "merged", entityInfo.tenantId(), entityInfo.entityName());
+                return false;
+            }
+            if (tryAcquire(entityInfo.tenantId(), entityInfo.entityName()) || held.size() >= properties.getMaxCoalesced()) {
+                return true;
+            }
+            held.put(key, update.copy(stateCopier));
+            count(deferred, "deferred", entityInfo.tenantId(), entityInfo.entityName());
+            return false;
+        }
+    }
+
+    private boolean sample(EntityInfo entityInfo) {
+        if (tryAcquire(entityInfo.tenantId(), entityInfo.entityName())
+                || !properties.getLowPriorityEntities().contains(entityInfo.entityName())
+                || ThreadLocalRandom.current().nextDouble() < properties.getSampleRate()) {
+            return true;
+        }
+        count(shed, "shed", entityInfo.tenantId(), entityInfo.entityName());
+        // the diff chain is broken, so the next audited update of the entity carries a full snapshot
+        snapshotPolicy.forget(key(entityInfo));
+        return false;
+    }
+
+    private boolean tryAcquire(String tenantId, String entityName) {
+        TokenBucket tenant = tenantBuckets.computeIfAbsent(tenantKey(tenantId), t -> new TokenBucket(
+                properties.getTenantRates().getOrDefault(t, properties.getTenantRate()), properties.getBurst()));
+        if (!tenant.tryAcquire()) {
+            return false;
+        }
+        TokenBucket entity = entityBuckets.computeIfAbsent(tenantKey(tenantId) + '/' + entityName, e -> new TokenBucket(
+                properties.getEntityRates().getOrDefault(entityName, 0.0), properties.getBurst()));
+        if (!entity.tryAcquire()) {
+            tenant.refund();
+            return false;
+        }
+        return true;
+    }
+
+    private void drainLoop() {
+        long nextReport = System.nanoTime() + properties.getReportInterval().toNanos();
+        while (running) {
+            try {
+                if (spill != null) {
+                    replaySpill();
+                } else {
+                    releaseHeld(false);
+                    Thread.sleep(DRAIN_PAUSE_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                // stop() interrupts the wait
+            } catch (Exception e) {
+                log.error("Error releasing rate-limited audits", e);
+            }
+            if (System.nanoTime() - nextReport >= 0) {
+                report();
+                nextReport = System.nanoTime() + properties.getReportInterval().toNanos();
+            }
+        }
+        // held updates only live in memory, audit them before shutting down
+        releaseHeld(true);
+    }
+
+    /**
+     * Hands the held updates whose tenant and entity type have tokens again, or all of them, to the
+     * {@link AuditExecutor} lanes of their entities, so they are diffed and written like any other audit
+     * and in order with the entity's newer updates queued there.
+     */
+    private void releaseHeld(boolean all) {
+        List<EntityInfo> released = new ArrayList<>();
+        synchronized (held) {
+            for (PendingUpdate update : held.values()) {
+                String key = key(update.entityInfo());
+                if (!scheduled.contains(key) && (all
+                        || tryAcquire(update.entityInfo().tenantId(), update.entityInfo().entityName()))) {
+                    scheduled.add(key);
+                    released.add(update.entityInfo());
+                }
+            }
+        }
+        for (EntityInfo entityInfo : released) {
+            auditExecutor.execute(entityInfo.uuid(), () -> releaseScheduled(key(entityInfo)));
+        }
+    }
+
+    /**
+     * Runs on the entity's lane. The update stays held until now, so updates of the entity that the
+     * lane ran meanwhile were merged into it rather than audited ahead of it.
+     */
+    private void releaseScheduled(String key) {
+        PendingUpdate update;
+        synchronized (held) {
+            scheduled.remove(key);
+            awaitRelease(key);
+            update = held.remove(key);
+            if (update != null) {
+                releasing.add(key);
+            }
+        }
+        if (update != null) {
+            release(update);
+        }
+    }
+
+    /**
+     * Audits an update taken out of {@link #held}, outside its lock so the diff does not block
+     * other entities.
+     */
+    private void release(PendingUpdate update) {
+        try {
+            emit(update);
+        } finally {
+            synchronized (held) {
+                releasing.remove(key(update.entityInfo()));
+                held.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits, holding {@code held}, until an update of the entity being released has been audited.
+     */
+    private void awaitRelease(String key) {
+        while (releasing.contains(key)) {
+            try {
+                held.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replays spilled audits in order at the allowed rate. A batch that was read is always finished,
+     * without waiting for tokens once stopping, so it is never replayed twice.
+     */
+    private void replaySpill() throws InterruptedException, IOException {
+        AuditSpool.Batch batch = spill.poll(100, Duration.ZERO);
+        for (AuditMessage message : batch.messages()) {
+            while (running && !tryAcquire(message.getTenantId(), message.getEntity())) {
+                try {
+                    Thread.sleep(DRAIN_PAUSE_MILLIS);
+                } catch (InterruptedException e) {
+                    // stopping
+                }
+            }
+            auditService.saveAudit(message);
+            spillBacklog.computeIfAbsent(tenantKey(message.getTenantId()), t -> new AtomicLong())
+                    .updateAndGet(backlog -> Math.max(0, backlog - 1));
+        }
+        spill.commit(batch.end());
+    }
+
+    private void emit(PendingUpdate update) {
+        try {
+            updateEmitter.accept(update);
+        } catch (Exception e) {
+            auditMetrics.error("rate-limit", update.entityInfo().entityName(), update.entityInfo().tenantId());
+            log.error("Error auditing held update of {} {}", update.entityInfo().entityName(),
+                    update.entityInfo().uuid(), e);
+        }
+    }
+
+    private void report() {
+        long total = sum(deferred) + sum(shed);
+        if (total != reportedTotal) {
+            reportedTotal = total;
+            log.warn("Audit rate limiting since startup: deferred {}, merged {}, shed {}, held {}, spilled bytes {}",
+                    getDeferredCounts(), getMergedCounts(), getShedCounts(), getHeldCount(), getSpilledBytes());
+        }
+    }
+
+    /**
+     * Audits written later than they happened, per {@code tenant/entity}.
+     */
+    public Map<String, Long> getDeferredCounts() {
+        return snapshot(deferred);
+    }
+
+    /**
+     * Updates merged into a held update of the same entity, whose intermediate values are therefore
+     * not audited, per {@code tenant/entity}.
+     */
+    public Map<String, Long> getMergedCounts() {
+        return snapshot(merged);
+    }
+
+    /**
+     * Updates not audited at all, per {@code tenant/entity}.
+     */
+    public Map<String, Long> getShedCounts() {
+        return snapshot(shed);
+    }
+
+    public int getHeldCount() {
+        synchronized (held) {
+            return held.size();
+        }
+    }
+
+    /**
+     * Approximate size of the spilled audits not yet replayed, {@code 0} without a spill.
+     */
+    public long getSpilledBytes() {
+        return spill == null ? 0 : spill.getPendingBytes();
+    }
+
+    private void count(Map<String, LongAdder> counters, String outcome, String tenantId, String entityName) {
+        counters.computeIfAbsent(tenantKey(tenantId) + '/' + entityName, k -> new LongAdder()).increment();
+        auditMetrics.rateLimited(outcome, entityName, tenantId);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((key, count) -> counts.put(key, count.sum()));
+        return counts;
+    }
+
+    private static long sum(Map<String, LongAdder> counters) {
+        return counters.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    private static String tenantKey(String tenantId) {
+        return tenantId == null ? "" : tenantId;
+    }
+
+    private static String key(EntityInfo entityInfo) {
+        return entityInfo.entityName() + ':' + entityInfo.uuid();
+    }
+
+    /**
+     * An update not diffed yet: the state before it and after it.
+     */
+    record PendingUpdate(AuditPlan plan, Object id, Object[] oldState, Object[] state, int[] dirtyProperties,
+                         EntityInfo entityInfo) {
+
+        /**
+         * Copy that no longer shares the states with Hibernate or the entity.
+         */
+        PendingUpdate copy(BiFunction<AuditPlan, Object[], Object[]> copier) {
+            return new PendingUpdate(plan, id, copier.apply(plan, oldState), copier.apply(plan, state),
+                    dirtyProperties, entityInfo);
+        }
+
+        /**
+         * The net change of this update followed by {@code newer}, as in {@link AuditTransactionBuffer}.
+         */
+        PendingUpdate merge(PendingUpdate newer, BiFunction<AuditPlan, Object[], Object[]> copier) {
+            int[] dirty = dirtyProperties == null || newer.dirtyProperties == null ? null
+                    : IntStream.concat(Arrays.stream(dirtyProperties), Arrays.stream(newer.dirtyProperties))
+                    .distinct().sorted().toArray();
+            return new PendingUpdate(plan, id, oldState, copier.apply(plan, newer.state), dirty, newer.entityInfo);
+        }
+    }
+
+    /**
+     * Classic token bucket refilled continuously at {@code rate} tokens per second up to
+     * {@code rate * burst} tokens. A rate of {@code 0} or less never runs out.
+     */
+    static final class TokenBucket {
+
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(double rate, Duration burst) {
+            this(rate, burst, System.nanoTime());
+        }
+
+        TokenBucket(double rate, Duration burst, long now) {
+            this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, rate * burst.toNanos() / TimeUnit.SECONDS.toNanos(1));
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        boolean tryAcquire() {
+            return tryAcquire(System.nanoTime());
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            if (tokensPerNano <= 0) {
+                return true;
+            }
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized void refund() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+    }
+}
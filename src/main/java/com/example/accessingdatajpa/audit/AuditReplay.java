@@ -0,0 +1,171 @@
+package com.example.accessingdatajpa.audit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.util.ObjectUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Rebuilds the flattened state of an entity from a full snapshot followed by audit diffs.
+ * <p>
+ * State is kept as dotted paths ({@code address.city}, {@code skillSet.0}) mapped to the rendered
+ * value, the same shape the listener diffs. Snapshots are stored in that shape already, see
+ * {@link #flattenProperty}. Diff values are applied as written by the listener:
+ * {@code old->new} replaces, {@code +value} adds, {@code -value} removes, and anything else (key
+ * fields, complex values that had no previous value) is taken as the new value. Set changes
+ * ({@code skillSet: {"+": [...], "-": [...]}}) add elements to or remove them from the positional
+ * children the snapshot has for the set, which are kept in string order.
+ */
+final class AuditReplay {
+
+    private static final String ARROW = "->";
+
+    private final TreeMap<String, String> state = new TreeMap<>();
+
+    private AuditReplay() {
+    }
+
+    /**
+     * Starts from a full snapshot, as stored for inserts and by the {@link SnapshotPolicy}.
+     */
+    static AuditReplay from(JsonNode snapshot) {
+        var replay = new AuditReplay();
+        replay.flatten("", snapshot);
+        return replay;
+    }
+
+    /**
+     * Flattens one property of an entity into {@code into} by the rules the listener diffs it with:
+     * {@link ObjectFlattener} paths, values rendered with {@code toString}, and nothing for nulls and
+     * empty values, which diffs never report. Top-level timestamps are rendered whole, as the
+     * listener compares them.
+     */
+    static void flattenProperty(String name, Object value, Predicate<String> excluded, Map<String, String> into) {
+        if (value instanceof LocalDateTime) {
+            into.put(name, value.toString());
+            return;
+        }
+        ObjectFlattener.flatten(value, name + '.', excluded).forEach((path, leaf) -> {
+            if (!ObjectUtils.isEmpty(leaf)) {
+                into.put(path, String.valueOf(leaf));
+            }
+        });
+    }
+
+    /**
+     * Applies one update diff.
+     */
+    void apply(JsonNode diff) {
+        for (Iterator<Map.Entry<String, JsonNode>> fields = diff.fields(); fields.hasNext(); ) {
+            var field = fields.next();
+            String path = field.getKey();
+            JsonNode value = field.getValue();
+            if (isSetChange(value)) {
+                applySetChange(path, value);
+                continue;
+            }
+            if (!value.isTextual()) {
+                clear(path);
+                flatten(path, value);
+                continue;
+            }
+            String text = value.textValue();
+            String current = state.get(path);
+            boolean present = current != null || !children(path).isEmpty();
+            if (current != null && text.startsWith(current + ARROW)) {
+                set(path, text.substring(current.length() + ARROW.length()));
+            } else if (current != null && text.equals("-" + current)) {
+                clear(path);
+            } else if (!present && text.startsWith("+")) {
+                set(path, text.substring(1));
+            } else if (text.contains(ARROW)) {
+                set(path, text.substring(text.indexOf(ARROW) + ARROW.length()));
+            } else if (present && text.startsWith("-")) {
+                clear(path);
+            } else {
+                set(path, text);
+            }
+        }
+    }
+
+    private static boolean isSetChange(JsonNode value) {
+        if (!value.isObject() || value.isEmpty()) {
+            return false;
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> fields = value.fields(); fields.hasNext(); ) {
+            var field = fields.next();
+            if (!field.getKey().equals("+") && !field.getKey().equals("-") || !field.getValue().isArray()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void applySetChange(String set, JsonNode change) {
+        var elements = new TreeMap<Integer, String>();
+        for (var element : children(set).entrySet()) {
+            String index = element.getKey().substring(set.length() + 1);
+            if (index.chars().allMatch(Character::isDigit)) {
+                elements.put(Integer.valueOf(index), element.getValue());
+            }
+        }
+        var values = new ArrayList<>(elements.values());
+        change.path("-").forEach(element -> values.remove(element.asText()));
+        change.path("+").forEach(element -> {
+            if (!values.contains(element.asText())) {
+                values.add(element.asText());
+            }
+        });
+        // ObjectFlattener numbers set elements in string order
+        values.sort(null);
+        clear(set);
+        for (int i = 0; i < values.size(); i++) {
+            state.put(set + '.' + i, values.get(i));
+        }
+    }
+
+    /**
+     * The state rebuilt so far, ordered by path.
+     */
+    SortedMap<String, String> state() {
+        return state;
+    }
+
+    private void set(String path, String value) {
+        clear(path);
+        if (!"null".equals(value)) {
+            state.put(path, value);
+        }
+    }
+
+    private void clear(String path) {
+        state.remove(path);
+        children(path).clear();
+    }
+
+    private SortedMap<String, String> children(String path) {
+        // '/' is the character after '.', so this is every key starting with "path."
+        return state.subMap(path + '.', path + '/');
+    }
+
+    private void flatten(String path, JsonNode node) {
+        if (node.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                var field = fields.next();
+                flatten(path.isEmpty() ? field.getKey() : path + '.' + field.getKey(), field.getValue());
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                flatten(path + '.' + i, node.get(i));
+            }
+        } else if (!node.isNull()) {
+            state.put(path, node.asText());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.accessingdatajpa.audit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * What is audited of one entity for one tenant, compiled from {@link AuditProperties} so the listener
+ * answers "audit this property?" with a bit lookup.
+ * <p>
+ * Property rules are written as {@code Entity.property}, or {@code *.property} for every entity.
+ * Excluded paths may go deeper into embedded values and collections ({@code Customer.address.city},
+ * {@code Customer.addressList.*.city}); those parts are skipped while flattening. Included properties
+ * name top-level properties only.
+ */
+public final class AuditRules {
+
+    private static final String ANY = "*";
+
+    private final boolean excluded;
+    private final BitSet audited;
+    private final PathFilter[] excludedPaths;
+
+    private AuditRules(boolean excluded, BitSet audited, PathFilter[] excludedPaths) {
+        this.excluded = excluded;
+        this.audited = audited;
+        this.excludedPaths = excludedPaths;
+    }
+
+    /**
+     * Whether the entity is not audited at all for this tenant.
+     */
+    public boolean isExcluded() {
+        return excluded;
+    }
+
+    public boolean isAudited(int index) {
+        return audited.get(index);
+    }
+
+    /**
+     * Paths inside the value of a property that are never flattened, or {@code null} when the whole
+     * value is audited. Paths are tested in the flattened form, e.g. {@code address.city}.
+     */
+    public Predicate<String> excludedPaths(int index) {
+        return excludedPaths[index];
+    }
+
+    /**
+     * Compiles the global rules and the rules of every configured tenant for one entity.
+     */
+    static Compiled compile(String entityName, String[] propertyNames, AuditProperties properties) {
+        AuditProperties.TenantRules none = new AuditProperties.TenantRules();
+        AuditRules defaults = compile(entityName, propertyNames, properties, none);
+        Map<String, AuditRules> tenants = new HashMap<>();
+        properties.getTenants().forEach((tenant, rules) ->
+                tenants.put(tenant, compile(entityName, propertyNames, properties, rules)));
+        return new Compiled(defaults, tenants);
+    }
+
+    private static AuditRules compile(String entityName, String[] propertyNames, AuditProperties properties,
+                                      AuditProperties.TenantRules tenant) {
+        boolean excluded = properties.getExcludedEntities().contains(entityName)
+                || tenant.getExcludedEntities().contains(entityName)
+                || !tenant.getIncludedEntities().isEmpty() && !tenant.getIncludedEntities().contains(entityName);
+
+        List<String[]> included = paths(entityName, tenant.getIncludedProperties());
+        List<String[]> excludedProperties = paths(entityName, tenant.getExcludedProperties());
+        BitSet audited = new BitSet(propertyNames.length);
+        PathFilter[] excludedPaths = new PathFilter[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            String name = propertyNames[i];
+            boolean isAudited = included.isEmpty() || included.stream().anyMatch(path -> path[0].equals(name));
+            List<String[]> nested = new ArrayList<>();
+            for (String[] path : excludedProperties) {
+                if (!path[0].equals(name)) {
+                    continue;
+                }
+                if (path.length == 1) {
+                    isAudited = false;
+                } else {
+                    nested.add(path);
+                }
+            }
+            if (isAudited && !properties.getIgnoredFields().contains(name)) {
+                audited.set(i);
+                excludedPaths[i] = nested.isEmpty() ? null : new PathFilter(nested);
+            }
+        }
+        return new AuditRules(excluded, audited, excludedPaths);
+    }
+
+    /**
+     * The property paths of the rules that apply to the entity, split into segments without the
+     * entity name.
+     */
+    private static List<String[]> paths(String entityName, Collection<String> rules) {
+        List<String[]> paths = new ArrayList<>();
+        for (String rule : rules) {
+            int dot = rule.indexOf('.');
+            if (dot < 0) {
+                continue;
+            }
+            String entity = rule.substring(0, dot);
+            if (entity.equals(entityName) || entity.equals(ANY)) {
+                paths.add(rule.substring(dot + 1).split("\\."));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The global rules and the per-tenant ones of an entity. Tenants without rules of their own get
+     * the global ones.
+     */
+    record Compiled(AuditRules defaults, Map<String, AuditRules> tenants) {
+
+        AuditRules forTenant(String tenantId) {
+            return tenants.getOrDefault(tenantId, defaults);
+        }
+    }
+
+    /**
+     * A path as a walker holds it, read from its last segment up, so it can be matched against
+     * excluded paths without being joined into a dotted string.
+     */
+    interface Segments {
+
+        /**
+         * Number of segments, the property name included.
+         */
+        int depth();
+
+        Segments parent();
+
+        /**
+         * Whether the last segment is {@code name}; {@code index} is {@code name} parsed, or {@code -1}
+         * if it is not a number.
+         */
+        boolean lastIs(String name, int index);
+    }
+
+    /**
+     * Matches paths against the excluded paths segment by segment, {@code *} matching any one segment
+     * such as a collection index. Excluded paths are split once, when the rules are compiled.
+     */
+    static final class PathFilter implements Predicate<String> {
+
+        private final Segment[][] paths;
+
+        private PathFilter(List<String[]> paths) {
+            this.paths = paths.stream()
+                    .map(path -> Arrays.stream(path).map(Segment::new).toArray(Segment[]::new))
+                    .toArray(Segment[][]::new);
+        }
+
+        @Override
+        public boolean test(String path) {
+            for (Segment[] excluded : paths) {
+                if (matches(excluded, path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean test(Segments path) {
+            for (Segment[] excluded : paths) {
+                if (matches(excluded, path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean matches(Segment[] excluded, String path) {
+            int start = 0;
+            for (Segment segment : excluded) {
+                if (start > path.length()) {
+                    return false;
+                }
+                int end = path.indexOf('.', start);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (!segment.isAny() && (end - start != segment.name().length()
+                        || !path.startsWith(segment.name(), start))) {
+                    return false;
+                }
+                start = end + 1;
+            }
+            return start == path.length() + 1;
+        }
+
+        private static boolean matches(Segment[] excluded, Segments path) {
+            if (path.depth() != excluded.length) {
+                return false;
+            }
+            for (int i = excluded.length - 1; i >= 0; i--, path = path.parent()) {
+                if (!excluded[i].isAny() && !path.lastIs(excluded[i].name(), excluded[i].index())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private record Segment(String name, int index) {
+
+        Segment(String name) {
+            this(name, name.chars().allMatch(Character::isDigit) && name.length() <= 9 && !name.isEmpty()
+                    ? Integer.parseInt(name) : -1);
+        }
+
+        boolean isAny() {
+            return name.equals(ANY);
+        }
+    }
+}
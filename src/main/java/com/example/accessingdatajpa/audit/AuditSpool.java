@@ -0,0 +1,331 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local write-ahead log for audit messages, made of append-only memory-mapped segment files.
+ * <p>
+ * Every record is a length, a CRC32, the time it was appended and the JSON of one {@link AuditMessage};
+ * the CRC covers the time and the JSON. A single reader
+ * consumes the records in append order and {@link #commit(Position) commits} its position once they
+ * are in the database; that position is kept in a checkpoint file so replay resumes from it after a
+ * restart, and fully consumed segments are deleted. An appended message survives a crash of the JVM
+ * as soon as {@link #append(AuditMessage)} returns, and a crash of the host as well when
+ * {@code fsync} is set.
+ */
+@Slf4j
+class AuditSpool implements Closeable {
+
+    private static final int HEADER = 16;
+    private static final int CHECKED = 8;
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final ObjectMapper objectMapper;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final MappedByteBuffer checkpoint;
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private long readSegment;
+    private int readOffset;
+    private ByteBuffer readBuffer;
+    /**
+     * Written by the reader only, read by other threads through {@link #getPendingBytes()}.
+     */
+    private volatile Position committed;
+
+    AuditSpool(Path directory, int segmentSize, boolean fsync, ObjectMapper objectMapper) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.objectMapper = objectMapper;
+        this.checkpoint = map(directory.resolve("checkpoint"), 16);
+        recover(new Position(checkpoint.getLong(0), checkpoint.getInt(8)));
+    }
+
+    /**
+     * Drops the segments consumed before the checkpoint and finds where the last segment ends,
+     * discarding a record torn by a crash.
+     */
+    private void recover(Position position) throws IOException {
+        List<Long> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name, 0, name.length() - SUFFIX.length(), 10))
+                    .sorted()
+                    .toList();
+        }
+        for (long segment : segments) {
+            if (segment < position.segment()) {
+                Files.delete(segmentPath(segment));
+            }
+        }
+        long first = segments.stream().filter(segment -> segment >= position.segment()).findFirst().orElse(-1L);
+        if (first != position.segment()) {
+            // the checkpointed segment is gone, resume at the next one that still exists
+            first = first < 0 ? position.segment() + 1 : first;
+            committed = new Position(first, 0);
+        } else {
+            committed = position;
+        }
+        writeSegment = Math.max(first, segments.isEmpty() ? first : segments.get(segments.size() - 1));
+        writeBuffer = map(segmentPath(writeSegment), segmentSize);
+        int end = writeSegment == committed.segment() ? committed.offset() : 0;
+        while (end + HEADER <= segmentSize) {
+            int length = writeBuffer.getInt(end);
+            if (length <= 0 || end + HEADER + length > segmentSize || !isIntact(writeBuffer, end, length)) {
+                break;
+            }
+            end += HEADER + length;
+        }
+        if (end + HEADER <= segmentSize && writeBuffer.getInt(end) != 0) {
+            log.warn("Discarding torn audit spool record at {} of segment {}", end, writeSegment);
+            writeBuffer.put(end, new byte[segmentSize - end]);
+        }
+        writeBuffer.position(end);
+
+        readSegment = committed.segment();
+        readOffset = committed.offset();
+        readBuffer = readSegment == writeSegment ? writeBuffer.duplicate() : mapReadOnly(readSegment);
+        log.info("Audit spool opened at {}, replaying from segment {} offset {}", directory, readSegment, readOffset);
+    }
+
+    /**
+     * Appends one message, rolling over to a new segment when the current one is full.
+     */
+    void append(AuditMessage message) throws IOException {
+        byte[] record = objectMapper.writeValueAsBytes(message);
+        if (HEADER + record.length > segmentSize) {
+            throw new IOException("Audit message of " + record.length + " bytes does not fit in a spool segment");
+        }
+        long appendedAt = System.currentTimeMillis();
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, appendedAt));
+        crc.update(record);
+        lock.lock();
+        try {
+            if (writeBuffer.position() + HEADER + record.length > segmentSize) {
+                roll();
+            }
+            int offset = writeBuffer.position();
+            writeBuffer.putInt(offset + 4, (int) crc.getValue());
+            writeBuffer.putLong(offset + CHECKED, appendedAt);
+            writeBuffer.put(offset + HEADER, record);
+            writeBuffer.putInt(offset, record.length);
+            writeBuffer.position(offset + HEADER + record.length);
+            if (fsync) {
+                writeBuffer.force(offset, HEADER + record.length);
+            }
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void roll() throws IOException {
+        writeBuffer.force();
+        writeSegment++;
+        writeBuffer = map(segmentPath(writeSegment), segmentSize);
+    }
+
+    /**
+     * Reads up to {@code maxMessages} messages following the last ones read. Waits up to a second for
+     * the first message, then up to {@code linger} for the batch to fill up. The batch is read again
+     * after a restart until its {@link Batch#end()} is committed.
+     */
+    Batch poll(int maxMessages, Duration linger) throws InterruptedException, IOException {
+        List<Spooled> records = new ArrayList<>(maxMessages);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        Position end;
+        lock.lockInterruptibly();
+        try {
+            while (records.size() < maxMessages) {
+                Spooled record = next();
+                if (record != null) {
+                    if (records.isEmpty()) {
+                        deadline = System.nanoTime() + linger.toNanos();
+                    }
+                    records.add(record);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                appended.awaitNanos(remaining);
+            }
+            end = new Position(readSegment, readOffset);
+        } finally {
+            lock.unlock();
+        }
+        List<AuditMessage> messages = new ArrayList<>(records.size());
+        long[] appendedAt = new long[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            messages.add(objectMapper.readValue(records.get(i).json(), AuditMessage.class));
+            appendedAt[i] = records.get(i).appendedAt();
+        }
+        return new Batch(messages, appendedAt, end);
+    }
+
+    private Spooled next() throws IOException {
+        while (true) {
+            int limit = readSegment == writeSegment ? writeBuffer.position() : readBuffer.capacity();
+            if (readOffset + HEADER <= limit) {
+                int length = readBuffer.getInt(readOffset);
+                if (length > 0 && readOffset + HEADER + length <= limit) {
+                    if (isIntact(readBuffer, readOffset, length)) {
+                        byte[] json = new byte[length];
+                        readBuffer.get(readOffset + HEADER, json);
+                        var record = new Spooled(readBuffer.getLong(readOffset + CHECKED), json);
+                        readOffset += HEADER + length;
+                        return record;
+                    }
+                    log.warn("Corrupt audit spool record at {} of segment {}, skipping the rest of the segment",
+                            readOffset, readSegment);
+                    if (readSegment == writeSegment) {
+                        // later appends go after what was written so far, skip just that
+                        readOffset = limit;
+                        return null;
+                    }
+                }
+            }
+            if (readSegment == writeSegment) {
+                return null;
+            }
+            readSegment++;
+            readOffset = 0;
+            readBuffer = readSegment == writeSegment ? writeBuffer.duplicate() : mapReadOnly(readSegment);
+        }
+    }
+
+    /**
+     * Reads every message appended but not committed yet, without moving the reader; for counting
+     * what an earlier run left to replay. Appends wait until it is done.
+     */
+    void forEachPending(Consumer<AuditMessage> action) throws IOException {
+        lock.lock();
+        try {
+            for (long segment = committed.segment(); segment <= writeSegment; segment++) {
+                ByteBuffer buffer = segment == writeSegment ? writeBuffer.duplicate() : mapReadOnly(segment);
+                int limit = segment == writeSegment ? writeBuffer.position() : buffer.capacity();
+                int offset = segment == committed.segment() ? committed.offset() : 0;
+                while (offset + HEADER <= limit) {
+                    int length = buffer.getInt(offset);
+                    if (length <= 0 || offset + HEADER + length > limit || !isIntact(buffer, offset, length)) {
+                        break;
+                    }
+                    byte[] record = new byte[length];
+                    buffer.get(offset + HEADER, record);
+                    action.accept(objectMapper.readValue(record, AuditMessage.class));
+                    offset += HEADER + length;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that everything before {@code position} is in the database and deletes the segments
+     * that are no longer needed.
+     */
+    void commit(Position position) throws IOException {
+        if (position.equals(committed)) {
+            return;
+        }
+        checkpoint.putLong(0, position.segment());
+        checkpoint.putInt(8, position.offset());
+        checkpoint.force();
+        for (long segment = committed.segment(); segment < position.segment(); segment++) {
+            Files.deleteIfExists(segmentPath(segment));
+        }
+        committed = position;
+    }
+
+    /**
+     * Approximate number of spooled bytes not yet committed.
+     */
+    long getPendingBytes() {
+        lock.lock();
+        try {
+            return (writeSegment - committed.segment()) * segmentSize + writeBuffer.position() - committed.offset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            writeBuffer.force();
+            checkpoint.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isIntact(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + CHECKED, HEADER - CHECKED + length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d%s", segment, SUFFIX));
+    }
+
+    private ByteBuffer mapReadOnly(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), segmentSize));
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Position of the next record to read: a segment number and a byte offset within it.
+     */
+    record Position(long segment, int offset) {
+    }
+
+    /**
+     * Messages read in one poll, with the time each was appended in epoch milliseconds.
+     */
+    record Batch(List<AuditMessage> messages, long[] appendedAt, Position end) {
+    }
+
+    private record Spooled(long appendedAt, byte[] json) {
+    }
+}
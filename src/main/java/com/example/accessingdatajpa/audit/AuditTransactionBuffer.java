@@ -0,0 +1,139 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.EntityInfo;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Collects the audit events of one transaction so that every entity produces at most one audit
+ * record. Only the state before the first change and after the last one are kept; the diff between
+ * them is computed once the transaction has committed, so A->B->C is audited as A->C and round trips
+ * disappear. Nothing is emitted for a transaction that rolls back.
+ */
+class AuditTransactionBuffer implements TransactionSynchronization {
+
+    private final Map<String, PendingAudit> pending = new LinkedHashMap<>();
+    private final Consumer<PendingAudit> emitter;
+    private final BiFunction<EntityPersister, Object[], Object[]> copier;
+
+    private AuditTransactionBuffer(Consumer<PendingAudit> emitter,
+                                   BiFunction<EntityPersister, Object[], Object[]> copier) {
+        this.emitter = emitter;
+        this.copier = copier;
+    }
+
+    /**
+     * Returns the buffer bound to the current transaction, creating it on first use, or {@code null}
+     * when no Spring-managed transaction is active. States are kept as {@code copier} copies them, so
+     * later changes to the live entity cannot leak into the buffered ones.
+     */
+    static AuditTransactionBuffer current(Consumer<PendingAudit> emitter,
+                                          BiFunction<EntityPersister, Object[], Object[]> copier) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        var buffer = (AuditTransactionBuffer) TransactionSynchronizationManager.getResource(AuditTransactionBuffer.class);
+        if (buffer == null) {
+            buffer = new AuditTransactionBuffer(emitter, copier);
+            TransactionSynchronizationManager.bindResource(AuditTransactionBuffer.class, buffer);
+            TransactionSynchronizationManager.registerSynchronization(buffer);
+        }
+        return buffer;
+    }
+
+    void insert(EntityInfo entityInfo, EntityPersister persister, Object id, Object[] state) {
+        PendingAudit audit = pending(entityInfo, persister, id);
+        audit.inserted = true;
+        audit.state = copier.apply(persister, state);
+    }
+
+    void update(EntityInfo entityInfo, EntityPersister persister, Object id, Object[] oldState, Object[] state,
+                int[] dirtyProperties) {
+        PendingAudit audit = pending(entityInfo, persister, id);
+        if (!audit.inserted && audit.oldState == null && oldState != null) {
+            audit.oldState = copier.apply(persister, oldState);
+        }
+        audit.state = copier.apply(persister, state);
+        if (dirtyProperties == null) {
+            audit.allDirty = true;
+        } else {
+            for (int index : dirtyProperties) {
+                audit.dirty.set(index);
+            }
+        }
+    }
+
+    void delete(EntityInfo entityInfo, EntityPersister persister, Object id, Object[] deletedState) {
+        PendingAudit audit = pending(entityInfo, persister, id);
+        audit.deleted = true;
+        audit.state = copier.apply(persister, deletedState);
+    }
+
+    private PendingAudit pending(EntityInfo entityInfo, EntityPersister persister, Object id) {
+        PendingAudit audit = pending.computeIfAbsent(entityInfo.entityName() + ':' + entityInfo.uuid(),
+                key -> new PendingAudit(persister, id));
+        // the last event carries the most recent updatedBy
+        audit.entityInfo = entityInfo;
+        return audit;
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(AuditTransactionBuffer.class);
+        if (status != STATUS_COMMITTED) {
+            return;
+        }
+        for (PendingAudit audit : pending.values()) {
+            // created and removed within the same transaction: nothing to audit
+            if (!(audit.inserted && audit.deleted)) {
+                emitter.accept(audit);
+            }
+        }
+    }
+
+    /**
+     * The net change of one entity within a transaction.
+     */
+    @Getter
+    static final class PendingAudit {
+        private final EntityPersister persister;
+        private final Object id;
+        private EntityInfo entityInfo;
+        private boolean inserted;
+        private boolean deleted;
+        /**
+         * Loaded state before the first update, {@code null} for entities inserted in this transaction.
+         */
+        private Object[] oldState;
+        /**
+         * State as of the last flush.
+         */
+        private Object[] state;
+        @Getter(AccessLevel.NONE)
+        private final BitSet dirty = new BitSet();
+        @Getter(AccessLevel.NONE)
+        private boolean allDirty;
+
+        private PendingAudit(EntityPersister persister, Object id) {
+            this.persister = persister;
+            this.id = id;
+        }
+
+        /**
+         * Union of the dirty property indexes of all updates, or {@code null} when Hibernate could not
+         * supply them for one of the updates.
+         */
+        int[] getDirtyProperties() {
+            return allDirty ? null : dirty.stream().toArray();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.model.AbstractBaseEntity;
+import com.google.common.primitives.Primitives;
+import org.apache.commons.lang3.reflect.FieldUtils;
+
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * What the flatten and diff engines need to know about a class, computed once per class. Descriptors
+ * live in a {@link ClassValue}, so lookups never lock and a descriptor goes away with its class when a
+ * class loader is discarded.
+ */
+final class ClassDescriptor {
+
+    /**
+     * How a value of the class is walked.
+     */
+    enum Kind {
+        /** Primitive wrappers, strings and date types: compared by {@code equals}. */
+        LEAF,
+        ENUM,
+        MAP,
+        COLLECTION,
+        ARRAY,
+        /** Anything else: walked field by field. */
+        BEAN
+    }
+
+    private static final ClassValue<ClassDescriptor> DESCRIPTORS = new ClassValue<>() {
+        @Override
+        protected ClassDescriptor computeValue(Class<?> type) {
+            return new ClassDescriptor(type);
+        }
+    };
+
+    /**
+     * Bookkeeping fields of audited entities, which are never part of a diff.
+     */
+    private static final Set<String> BASE_FIELDS = FieldUtils.getAllFieldsList(AbstractBaseEntity.class).stream()
+            .map(Field::getName)
+            .collect(Collectors.toSet());
+
+    private final Kind kind;
+    private final List<FieldAccessor> fields;
+    private final List<FieldAccessor> auditedFields;
+
+    private ClassDescriptor(Class<?> type) {
+        this.kind = kindOf(type);
+        if (kind == Kind.MAP || kind == Kind.COLLECTION || kind == Kind.ARRAY) {
+            this.fields = List.of();
+            this.auditedFields = List.of();
+        } else {
+            // class first, then superclasses, each in declaration order
+            this.fields = FieldUtils.getAllFieldsList(type).stream()
+                    .map(FieldAccessor::of)
+                    .toList();
+            // the stable sort keeps a shadowing field before the shadowed one
+            this.auditedFields = fields.stream()
+                    .filter(field -> !BASE_FIELDS.contains(field.getName()))
+                    .sorted(Comparator.comparing(FieldAccessor::getName))
+                    .toList();
+        }
+    }
+
+    static ClassDescriptor of(Class<?> type) {
+        return DESCRIPTORS.get(type);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Every field of the class and then of its superclasses, static ones included, in declaration
+     * order as the reflective diff engines have always walked them. Empty for maps, collections and
+     * arrays.
+     */
+    List<FieldAccessor> getFields() {
+        return fields;
+    }
+
+    /**
+     * {@link #getFields()} without the {@link AbstractBaseEntity} bookkeeping fields, sorted by name as
+     * the flattener orders them.
+     */
+    List<FieldAccessor> getAuditedFields() {
+        return auditedFields;
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (Map.class.isAssignableFrom(type)) {
+            return Kind.MAP;
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return Kind.COLLECTION;
+        }
+        if (type.isArray()) {
+            return Kind.ARRAY;
+        }
+        if (type.isPrimitive() || Primitives.isWrapperType(type) || type == String.class
+                || Date.class.isAssignableFrom(type) || type == LocalDateTime.class
+                || Calendar.class.isAssignableFrom(type)) {
+            return Kind.LEAF;
+        }
+        if (Enum.class.isAssignableFrom(type)) {
+            return Kind.ENUM;
+        }
+        return Kind.BEAN;
+    }
+}
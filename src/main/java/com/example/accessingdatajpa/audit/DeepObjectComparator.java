@@ -6,7 +6,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.lang.reflect.Field;
 import java.util.*;
 
 public class DeepObjectComparator {
@@ -69,16 +68,17 @@ public class DeepObjectComparator {
 
         // Handle custom objects using reflection
         try {
-            List<Field> fields = getAllFields(obj1.getClass());
-            for (Field field : fields) {
-                field.setAccessible(true);
+            for (FieldAccessor field : ClassDescriptor.of(obj1.getClass()).getFields()) {
                 Object value1 = field.get(obj1);
                 Object value2 = field.get(obj2);
 
                 String newPath = path.isEmpty() ? field.getName() : path + "." + field.getName();
                 compareObjects(value1, value2, newPath, depth + 1, differences);
             }
-        } catch (IllegalAccessException e) {
+        } catch (RuntimeException e) {
+            if (!(e.getCause() instanceof IllegalAccessException)) {
+                throw e;
+            }
             differences.put(path, new Object[]{obj1, obj2});
         }
     }
@@ -172,19 +172,6 @@ public class DeepObjectComparator {
         }
     }
 
-    private static List<Field> getAllFields(Class<?> clazz) {
-        List<Field> fields = new ArrayList<>();
-        Class<?> currentClass = clazz;
-
-        // Get fields from class and all superclasses
-        while (currentClass != null && currentClass != Object.class) {
-            fields.addAll(Arrays.asList(currentClass.getDeclaredFields()));
-            currentClass = currentClass.getSuperclass();
-        }
-
-        return fields;
-    }
-
     private static boolean isPrimitiveOrWrapper(Class<?> clazz) {
         return clazz.isPrimitive() ||
                 clazz == Boolean.class ||
@@ -0,0 +1,100 @@
+package com.example.accessingdatajpa.audit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+
+/**
+ * Reads one field of an object through a method handle resolved once per field, instead of calling
+ * {@link Field#setAccessible} and {@link Field#get} on every read.
+ */
+abstract class FieldAccessor {
+
+    private final Field field;
+
+    private FieldAccessor(Field field) {
+        this.field = field;
+    }
+
+    static FieldAccessor of(Field field) {
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+        } catch (IllegalAccessException | RuntimeException e) {
+            // e.g. a JDK class in a package that is not opened to us
+            return new Reflective(field);
+        }
+        try {
+            return new Handle(field, lookup.unreflectGetter(field));
+        } catch (IllegalAccessException e) {
+            return new Reflective(field);
+        }
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getName() {
+        return field.getName();
+    }
+
+    /**
+     * Returns the field value of {@code target}, boxed if the field is primitive.
+     */
+    abstract Object get(Object target);
+
+    /**
+     * Whether the field holds the same value on both objects, by {@code equals} of the (boxed) values.
+     */
+    boolean isEqual(Object left, Object right) {
+        return Objects.equals(get(left), get(right));
+    }
+
+    private static final class Handle extends FieldAccessor {
+        private final MethodHandle getter;
+
+        Handle(Field field, MethodHandle getter) {
+            super(field);
+            // a static field is read regardless of the target
+            MethodHandle instanceGetter = Modifier.isStatic(field.getModifiers())
+                    ? MethodHandles.dropArguments(getter, 0, Object.class) : getter;
+            this.getter = instanceGetter.asType(MethodType.methodType(Object.class, Object.class));
+        }
+
+        @Override
+        Object get(Object target) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Error accessing field: " + getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Plain reflection, for fields no lookup can reach; fails the same way {@link Field#get} always has.
+     */
+    private static final class Reflective extends FieldAccessor {
+
+        Reflective(Field field) {
+            super(field);
+        }
+
+        @Override
+        Object get(Object target) {
+            Field field = getField();
+            field.setAccessible(true);
+            try {
+                return field.get(target);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Error accessing field: " + field.getName(), e);
+            }
+        }
+    }
+}
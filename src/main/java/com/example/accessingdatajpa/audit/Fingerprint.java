@@ -0,0 +1,171 @@
+package com.example.accessingdatajpa.audit;
+
+import org.springframework.util.ObjectUtils;
+
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A 64-bit structural hash of a value, computed in one walk without building maps or path strings.
+ * It covers exactly what {@link StructuralDiffer} compares (the same leaves under the same paths, sets
+ * of leaves by element, maps by key), so two values with the same fingerprint have no differences to
+ * report. Entries are summed, which makes map and set iteration order irrelevant.
+ * <p>
+ * The hash is seeded per process, so fingerprints are only comparable within one run and cannot be
+ * steered to collide from the outside.
+ */
+final class Fingerprint {
+
+    private static final long SEED = new SecureRandom().nextLong();
+
+    private static final ClassValue<long[]> FIELD_NAME_HASHES = new ClassValue<>() {
+        @Override
+        protected long[] computeValue(Class<?> type) {
+            return ClassDescriptor.of(type).getAuditedFields().stream()
+                    .mapToLong(field -> hash(field.getName()))
+                    .toArray();
+        }
+    };
+
+    private static final ClassValue<Long> CLASS_HASHES = new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            return hash(type.getName());
+        }
+    };
+
+    private Fingerprint() {
+    }
+
+    static long of(Object value) {
+        return walk(SEED, value);
+    }
+
+    private static long walk(long path, Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String string) {
+            return string.isEmpty() ? 0 : entry(path, hash(string));
+        }
+        long sum = 0;
+        ClassDescriptor descriptor = ClassDescriptor.of(value.getClass());
+        switch (descriptor.getKind()) {
+            case LEAF:
+                // empty values are never reported, whatever they change to or from; LocalDateTime is never diffed
+                if (!ObjectUtils.isEmpty(value) && !(value instanceof LocalDateTime)) {
+                    sum = entry(path, leafHash(value));
+                }
+                break;
+            case ENUM:
+                sum = entry(path, leafHash(((Enum<?>) value).name()));
+                break;
+            case MAP:
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    sum += walk(child(path, hash(String.valueOf(entry.getKey()))), entry.getValue());
+                }
+                break;
+            case COLLECTION:
+                if (value instanceof Set<?> set && StructuralDiffer.hasOnlyLeaves(set)) {
+                    for (Object element : set) {
+                        Object leaf = StructuralDiffer.leaf(element);
+                        if (!ObjectUtils.isEmpty(leaf)) {
+                            long elementHash = leafHash(leaf);
+                            sum += entry(child(path, elementHash), elementHash);
+                        }
+                    }
+                } else {
+                    sum = walkElements(path, value instanceof List
+                            ? ((Collection<?>) value).iterator() : StructuralDiffer.sorted(value));
+                }
+                break;
+            case ARRAY:
+                sum = walkElements(path, StructuralDiffer.elements(value));
+                break;
+            default:
+                List<FieldAccessor> fields = descriptor.getAuditedFields();
+                long[] names = FIELD_NAME_HASHES.get(value.getClass());
+                for (int i = 0; i < names.length; i++) {
+                    sum += walk(child(path, names[i]), fields.get(i).get(value));
+                }
+        }
+        return sum;
+    }
+
+    private static long walkElements(long path, Iterator<?> elements) {
+        long sum = 0;
+        for (long index = 0; elements.hasNext(); index++) {
+            sum += walk(child(path, mix(~index)), elements.next());
+        }
+        return sum;
+    }
+
+    private static long leafHash(Object leaf) {
+        if (leaf instanceof String string) {
+            return hash(string);
+        }
+        long value;
+        if (leaf instanceof Long || leaf instanceof Integer || leaf instanceof Short || leaf instanceof Byte) {
+            value = ((Number) leaf).longValue();
+        } else if (leaf instanceof Double number) {
+            value = Double.doubleToLongBits(number);
+        } else if (leaf instanceof Float number) {
+            value = Float.floatToIntBits(number);
+        } else if (leaf instanceof Boolean bool) {
+            value = bool ? 1 : 0;
+        } else if (leaf instanceof Character character) {
+            value = character;
+        } else if (leaf instanceof Timestamp timestamp) {
+            value = timestamp.getTime() * 31 + timestamp.getNanos();
+        } else if (leaf instanceof Date date) {
+            // toString drops the milliseconds
+            value = date.getTime();
+        } else {
+            value = hash(leaf.toString());
+        }
+        return mix(CLASS_HASHES.get(leaf.getClass()) + mix(value));
+    }
+
+    private static long child(long path, long segment) {
+        return mix(path ^ segment);
+    }
+
+    private static long entry(long path, long leaf) {
+        return mix(path + 0x9E3779B97F4A7C15L * leaf);
+    }
+
+    private static long hash(String chars) {
+        int length = chars.length();
+        long hash = SEED ^ length;
+        int i = 0;
+        // four chars per multiply
+        for (; i + 4 <= length; i += 4) {
+            long block = chars.charAt(i) | (long) chars.charAt(i + 1) << 16 | (long) chars.charAt(i + 2) << 32
+                    | (long) chars.charAt(i + 3) << 48;
+            hash = Long.rotateLeft((hash ^ block) * 0x9E3779B97F4A7C15L, 29);
+        }
+        for (; i < length; i++) {
+            hash = Long.rotateLeft((hash ^ chars.charAt(i)) * 0x9E3779B97F4A7C15L, 29);
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The MurmurHash3 finalizer.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -14,13 +14,25 @@ public class HibernateListener {
 
     private final EntityManagerFactory entityManagerFactory;
     private final AuditListener auditListener;
+    private final AuditProperties auditProperties;
+    private final AuditPlans auditPlans;
 
     @PostConstruct
     private void init() {
         SessionFactoryImpl sessionFactory = entityManagerFactory.unwrap(SessionFactoryImpl.class);
+        auditPlans.compile(sessionFactory.getMappingMetamodel());
+        if (!auditProperties.isEnabled()) {
+            return;
+        }
         EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
-        registry.getEventListenerGroup(EventType.POST_INSERT).appendListener(auditListener);
-        registry.getEventListenerGroup(EventType.POST_UPDATE).appendListener(auditListener);
-        registry.getEventListenerGroup(EventType.POST_DELETE).appendListener(auditListener);
+        if (auditProperties.isPostCommit()) {
+            registry.getEventListenerGroup(EventType.POST_COMMIT_INSERT).appendListener(auditListener);
+            registry.getEventListenerGroup(EventType.POST_COMMIT_UPDATE).appendListener(auditListener);
+            registry.getEventListenerGroup(EventType.POST_COMMIT_DELETE).appendListener(auditListener);
+        } else {
+            registry.getEventListenerGroup(EventType.POST_INSERT).appendListener(auditListener);
+            registry.getEventListenerGroup(EventType.POST_UPDATE).appendListener(auditListener);
+            registry.getEventListenerGroup(EventType.POST_DELETE).appendListener(auditListener);
+        }
     }
 }
@@ -0,0 +1,301 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.StructuralDiffer.Path;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Diffs two JSON documents by reading their token streams in lockstep, without building trees or
+ * flattened maps. Differences are reported like {@link StructuralDiffer} does: {@code "old->new"},
+ * {@code "-old"} and {@code "+new"} under the same dotted paths, leaving out empty values, with
+ * {@code null} standing for a missing value. Lists and arrays are compared by position; sets and other
+ * unordered collections are handed to {@link StructuralDiffer}, which reports sets of leaf values as
+ * {@code {"+": [...], "-": [...]}}.
+ * <p>
+ * Over {@link JsonNode} values and parsers only the path being visited is kept. Other values have no
+ * token stream of their own, so each is written into a {@link TokenBuffer} first, the way
+ * {@link ObjectFlattener} walks it: audited fields by name, map entries in key order, leaves as their
+ * {@code toString} and enums by name, so that the diffs apply to flat snapshots in {@link AuditReplay}.
+ * Unordered collections are kept in the buffer as they are. Memory is then linear in the document,
+ * though a buffer is far more compact than a tree or a flattened map. An object whose keys stop lining
+ * up on both sides, because a key was added or removed or the keys come in another order, has the rest
+ * of its fields read into trees and matched by name; {@link #diff} returns how often that happened.
+ */
+public final class JsonTokenDiffer {
+
+    private final ObjectMapper mapper;
+    private final JsonParser oldJson;
+    private final JsonParser newJson;
+    private final Predicate<String> excluded;
+    private final BiConsumer<String, Object> sink;
+    /**
+     * Objects matched by name so far, shared with the differs of their children.
+     */
+    private final int[] fallbacks;
+
+    private JsonTokenDiffer(ObjectMapper mapper, JsonParser oldJson, JsonParser newJson, Predicate<String> excluded,
+                            BiConsumer<String, Object> sink, int[] fallbacks) {
+        this.mapper = mapper;
+        this.oldJson = oldJson;
+        this.newJson = newJson;
+        this.excluded = excluded;
+        this.sink = sink;
+        this.fallbacks = fallbacks;
+    }
+
+    /**
+     * Diffs two values below {@code name}. {@link JsonNode} values are read as they are; anything else
+     * is written into a token buffer first. Paths matched by {@code excluded} (may be {@code null}) are
+     * skipped together with everything below them.
+     *
+     * @return the number of objects whose fields had to be read into trees and matched by name
+     */
+    public static int diff(String name, Object oldValue, Object newValue, ObjectMapper mapper,
+                           Predicate<String> excluded, BiConsumer<String, Object> sink) throws IOException {
+        try (JsonParser oldJson = tokens(mapper, oldValue); JsonParser newJson = tokens(mapper, newValue)) {
+            return diff(name, oldJson, newJson, mapper, excluded, sink);
+        }
+    }
+
+    /**
+     * Diffs two JSON documents read from parsers, e.g. over raw column content. The parsers are left
+     * open.
+     *
+     * @return the number of objects whose fields had to be read into trees and matched by name
+     */
+    public static int diff(String name, JsonParser oldJson, JsonParser newJson, ObjectMapper mapper,
+                           Predicate<String> excluded, BiConsumer<String, Object> sink) throws IOException {
+        int[] fallbacks = new int[1];
+        new JsonTokenDiffer(mapper, oldJson, newJson, excluded, sink, fallbacks)
+                .value(Path.root(name), oldJson.nextToken(), newJson.nextToken());
+        return fallbacks[0];
+    }
+
+    private static JsonParser tokens(ObjectMapper mapper, Object value) throws IOException {
+        if (value instanceof JsonNode node) {
+            return mapper.treeAsTokens(node);
+        }
+        TokenBuffer buffer = new TokenBuffer(mapper, false);
+        write(buffer, value);
+        return buffer.asParser(mapper);
+    }
+
+    /**
+     * Writes {@code value} as {@link ObjectFlattener} would flatten it. Nested timestamps, which it
+     * leaves out, are written as {@code null}.
+     */
+    private static void write(JsonGenerator json, Object value) throws IOException {
+        if (value == null || value instanceof LocalDateTime) {
+            json.writeNull();
+            return;
+        }
+        ClassDescriptor descriptor = ClassDescriptor.of(value.getClass());
+        switch (descriptor.getKind()) {
+            case LEAF:
+                json.writeString(value.toString());
+                break;
+            case ENUM:
+                json.writeString(((Enum<?>) value).name());
+                break;
+            case MAP:
+                Map<String, Object> entries = new TreeMap<>();
+                ((Map<?, ?>) value).forEach((key, entry) -> entries.put(String.valueOf(key), entry));
+                json.writeStartObject();
+                for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                    json.writeFieldName(entry.getKey());
+                    write(json, entry.getValue());
+                }
+                json.writeEndObject();
+                break;
+            case COLLECTION:
+                if (value instanceof List) {
+                    writeElements(json, value);
+                } else {
+                    json.writeEmbeddedObject(value);
+                }
+                break;
+            case ARRAY:
+                writeElements(json, value);
+                break;
+            default:
+                json.writeStartObject();
+                for (FieldAccessor field : descriptor.getAuditedFields()) {
+                    json.writeFieldName(field.getName());
+                    write(json, field.get(value));
+                }
+                json.writeEndObject();
+        }
+    }
+
+    private static void writeElements(JsonGenerator json, Object value) throws IOException {
+        json.writeStartArray();
+        for (Iterator<?> elements = StructuralDiffer.elements(value); elements.hasNext(); ) {
+            write(json, elements.next());
+        }
+        json.writeEndArray();
+    }
+
+    /**
+     * Compares the values both parsers are positioned at; a {@code null} token is a missing value.
+     */
+    private void value(Path path, JsonToken oldToken, JsonToken newToken) throws IOException {
+        oldToken = oldToken == JsonToken.VALUE_NULL ? null : oldToken;
+        newToken = newToken == JsonToken.VALUE_NULL ? null : newToken;
+        if (oldToken == null && newToken == null) {
+            return;
+        }
+        if (path.isExcludedBy(excluded)) {
+            skip(oldJson, oldToken);
+            skip(newJson, newToken);
+            return;
+        }
+        if (isUnordered(oldToken) && isUnordered(newToken)) {
+            StructuralDiffer.diff(path, embedded(oldJson, oldToken), embedded(newJson, newToken), excluded, sink);
+        } else if (oldToken == JsonToken.START_OBJECT && newToken == JsonToken.START_OBJECT) {
+            objects(path);
+        } else if (oldToken == JsonToken.START_ARRAY && newToken == JsonToken.START_ARRAY) {
+            arrays(path);
+        } else if (isScalar(oldToken) && isScalar(newToken)) {
+            String oldText = oldJson.getText();
+            String newText = newJson.getText();
+            if ((oldToken != newToken || !oldText.equals(newText)) && (!oldText.isEmpty() || !newText.isEmpty())) {
+                sink.accept(path.toString(), oldText + "->" + newText);
+            }
+        } else {
+            report(path, oldJson, oldToken, "-");
+            report(path, newJson, newToken, "+");
+        }
+    }
+
+    /**
+     * Whether {@code token} is an unordered collection kept in the buffer, or a missing value.
+     */
+    private static boolean isUnordered(JsonToken token) {
+        return token == null || token == JsonToken.VALUE_EMBEDDED_OBJECT;
+    }
+
+    private static boolean isScalar(JsonToken token) {
+        return token != null && token.isScalarValue() && token != JsonToken.VALUE_EMBEDDED_OBJECT;
+    }
+
+    private static Object embedded(JsonParser json, JsonToken token) throws IOException {
+        return token == null ? null : json.getEmbeddedObject();
+    }
+
+    private void objects(Path path) throws IOException {
+        while (true) {
+            JsonToken oldToken = oldJson.nextToken();
+            JsonToken newToken = newJson.nextToken();
+            if (oldToken == JsonToken.END_OBJECT && newToken == JsonToken.END_OBJECT) {
+                return;
+            }
+            if (oldToken != JsonToken.FIELD_NAME || newToken != JsonToken.FIELD_NAME
+                    || !oldJson.currentName().equals(newJson.currentName())) {
+                fallbacks[0]++;
+                byName(path, rest(oldJson, oldToken), rest(newJson, newToken));
+                return;
+            }
+            value(path.child(oldJson.currentName()), oldJson.nextToken(), newJson.nextToken());
+        }
+    }
+
+    /**
+     * Reads the remaining fields of an object, starting at {@code token}, into a tree.
+     */
+    private ObjectNode rest(JsonParser json, JsonToken token) throws IOException {
+        ObjectNode fields = mapper.createObjectNode();
+        for (; token == JsonToken.FIELD_NAME; token = json.nextToken()) {
+            String name = json.currentName();
+            json.nextToken();
+            fields.set(name, mapper.readTree(json));
+        }
+        return fields;
+    }
+
+    private void byName(Path path, ObjectNode oldFields, ObjectNode newFields) throws IOException {
+        for (Iterator<Map.Entry<String, JsonNode>> fields = oldFields.fields(); fields.hasNext(); ) {
+            var field = fields.next();
+            child(path.child(field.getKey()), field.getValue(), newFields.get(field.getKey()));
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> fields = newFields.fields(); fields.hasNext(); ) {
+            var field = fields.next();
+            if (!oldFields.has(field.getKey())) {
+                child(path.child(field.getKey()), null, field.getValue());
+            }
+        }
+    }
+
+    private void child(Path path, JsonNode oldNode, JsonNode newNode) throws IOException {
+        // unordered collections come back out of the tree as the embedded values they went in as
+        try (JsonParser oldChild = mapper.treeAsTokens(oldNode == null ? NullNode.getInstance() : oldNode);
+             JsonParser newChild = mapper.treeAsTokens(newNode == null ? NullNode.getInstance() : newNode)) {
+            new JsonTokenDiffer(mapper, oldChild, newChild, excluded, sink, fallbacks)
+                    .value(path, oldChild.nextToken(), newChild.nextToken());
+        }
+    }
+
+    private void arrays(Path path) throws IOException {
+        boolean oldDone = false;
+        boolean newDone = false;
+        for (int index = 0; ; index++) {
+            JsonToken oldToken = oldDone ? null : oldJson.nextToken();
+            JsonToken newToken = newDone ? null : newJson.nextToken();
+            oldDone = oldDone || oldToken == JsonToken.END_ARRAY;
+            newDone = newDone || newToken == JsonToken.END_ARRAY;
+            if (oldDone && newDone) {
+                return;
+            }
+            value(path.child(index), oldDone ? null : oldToken, newDone ? null : newToken);
+        }
+    }
+
+    /**
+     * Reports every non-empty leaf of the value at {@code token} as removed or added.
+     */
+    private void report(Path path, JsonParser json, JsonToken token, String sign) throws IOException {
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (path.isExcludedBy(excluded)) {
+            json.skipChildren();
+            return;
+        }
+        if (token == JsonToken.START_OBJECT) {
+            while (json.nextToken() == JsonToken.FIELD_NAME) {
+                report(path.child(json.currentName()), json, json.nextToken(), sign);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            for (JsonToken element = json.nextToken(); element != JsonToken.END_ARRAY; element = json.nextToken()) {
+                report(path.child(index++), json, element, sign);
+            }
+        } else if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            boolean removed = sign.equals("-");
+            StructuralDiffer.diff(path, removed ? json.getEmbeddedObject() : null,
+                    removed ? null : json.getEmbeddedObject(), excluded, sink);
+        } else if (!json.getText().isEmpty()) {
+            sink.accept(path.toString(), sign + json.getText());
+        }
+    }
+
+    private static void skip(JsonParser json, JsonToken token) throws IOException {
+        if (token != null) {
+            json.skipChildren();
+        }
+    }
+}
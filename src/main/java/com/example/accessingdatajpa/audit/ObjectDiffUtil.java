@@ -2,14 +2,12 @@ package com.example.accessingdatajpa.audit;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.lang.reflect.Field;
 import java.util.*;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import java.lang.reflect.Field;
 import java.util.*;
 
 public class ObjectDiffUtil {
@@ -85,8 +83,7 @@ public class ObjectDiffUtil {
         }
 
         // Handle regular objects with fields
-        for (Field field : getAllFields(clazz)) {
-            field.setAccessible(true);
+        for (FieldAccessor field : ClassDescriptor.of(clazz).getFields()) {
             String fieldName = field.getName();
             Object oldValue = field.get(oldObj);
             Object newValue = field.get(newObj);
@@ -268,16 +265,4 @@ public class ObjectDiffUtil {
                 Number.class.isAssignableFrom(clazz);
     }
 
-    private static List<Field> getAllFields(Class<?> clazz) {
-        List<Field> fields = new ArrayList<>();
-        Class<?> currentClass = clazz;
-
-        // Get fields from class and all superclasses
-        while (currentClass != null && currentClass != Object.class) {
-            fields.addAll(Arrays.asList(currentClass.getDeclaredFields()));
-            currentClass = currentClass.getSuperclass();
-        }
-
-        return fields;
-    }
 }
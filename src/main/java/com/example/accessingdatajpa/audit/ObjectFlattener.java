@@ -2,44 +2,48 @@ package com.example.accessingdatajpa.audit;
 
 import com.example.accessingdatajpa.Address;
 import com.example.accessingdatajpa.Customer;
-import com.example.accessingdatajpa.audit.model.AbstractBaseEntity;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
-import com.google.common.primitives.Primitives;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.collections4.comparators.NullComparator;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.springframework.util.ObjectUtils;
 
-import java.lang.reflect.Field;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 public class ObjectFlattener {
 
-    private static Set<String>  baseFields = FieldUtils.getAllFieldsList(AbstractBaseEntity.class).stream()
-            .map(Field::getName)
-            .collect(Collectors.toSet());
-    static Map<String, List<Field>> fieldMap = Maps.newHashMap();
-
     public static Map<String, Object> flatten(Object obj,String prefix) {
-        return flatten(obj, prefix, new TreeMap<>());
+        return flatten(obj, prefix, null, new TreeMap<>());
+    }
+
+    /**
+     * Flattens {@code obj}, skipping the paths (without trailing dot) matched by {@code excluded}
+     * together with everything below them.
+     */
+    public static Map<String, Object> flatten(Object obj, String prefix, Predicate<String> excluded) {
+        return flatten(obj, prefix, excluded, new TreeMap<>());
     }
 
-    private static Map<String, Object> flatten(Object obj, String prefix, Map<String, Object> result) {
+    private static Map<String, Object> flatten(Object obj, String prefix, Predicate<String> excluded,
+                                               Map<String, Object> result) {
+        if (excluded != null && excluded.test(prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix)) {
+            return result;
+        }
         if (obj == null) {
             result.put(prefix, null);
             return result;
         }
 
+        ClassDescriptor descriptor = ClassDescriptor.of(obj.getClass());
         if (obj instanceof LocalDateTime) {
 
         } else
-        if (obj instanceof Map) {
+        if (descriptor.getKind() == ClassDescriptor.Kind.MAP) {
             // Use Guava's immutable sorting for consistent map key ordering
             Map<?, ?> map = (Map<?, ?>) obj;
             if (MapUtils.isNotEmpty(map)) {
@@ -52,10 +56,10 @@ public class ObjectFlattener {
                         )));
 
                 for (Map.Entry<?, ?> entry : entries) {
-                    flatten(entry.getValue(), prefix + entry.getKey() + ".", result);
+                    flatten(entry.getValue(), prefix + entry.getKey() + ".", excluded, result);
                 }
             }
-        } else if (obj instanceof Collection) {
+        } else if (descriptor.getKind() == ClassDescriptor.Kind.COLLECTION) {
             Collection<?> collection = (Collection<?>) obj;
             if (CollectionUtils.isNotEmpty(collection)) {
                 List<?> sortedItems;
@@ -75,7 +79,7 @@ public class ObjectFlattener {
 
                 int index = 0;
                 for (Object item : sortedItems) {
-                    flatten(item, prefix + index + ".", result);
+                    flatten(item, prefix + index + ".", excluded, result);
                     index++;
                 }
             } else {
@@ -83,14 +87,14 @@ public class ObjectFlattener {
                 result.put(prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix,
                         Collections.emptyList());
             }
-        } else if (obj.getClass().isArray()) {
+        } else if (descriptor.getKind() == ClassDescriptor.Kind.ARRAY) {
             Object[] array = (Object[]) obj;
             if (array.length > 0) {
                 // Use Guava's immutable list copy for safety
                 List<?> asList = ImmutableList.copyOf(array);
                 int index = 0;
                 for (Object item : asList) {
-                    flatten(item, prefix + index + ".", result);
+                    flatten(item, prefix + index + ".", excluded, result);
                     index++;
                 }
             } else {
@@ -98,56 +102,28 @@ public class ObjectFlattener {
                 result.put(prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix,
                         new Object[0]);
             }
-        } else if (isPrimitiveOrWrapper(obj)) {
+        } else if (descriptor.getKind() == ClassDescriptor.Kind.LEAF) {
             result.put(prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix, obj);
-        } else if (obj instanceof Enum) {
+        } else if (descriptor.getKind() == ClassDescriptor.Kind.ENUM) {
             // Special handling for enum values
             Enum<?> enumValue = (Enum<?>) obj;
             result.put(prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix,
                     enumValue.name());
         } else {
-            List<Field> fields = getFields(obj);
-
-            // Sort fields by name for consistent ordering
-
-
-            for (Field field : fields) {
-                field.setAccessible(true);
-                try {
-                    Object value = field.get(obj);
-                    flatten(value, prefix + field.getName() + ".", result);
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException("Error accessing field: " + field.getName(), e);
-                }
+            // Fields are sorted by name for consistent ordering
+            for (FieldAccessor field : descriptor.getAuditedFields()) {
+                flatten(field.get(obj), prefix + field.getName() + ".", excluded, result);
             }
         }
 
         return result;
     }
 
-    private static List<Field> getFields(Object obj) {
-        if(!fieldMap.containsKey(obj.getClass().getName())) {
-            var fields = new ArrayList<>(FieldUtils.getAllFieldsList(obj.getClass()).stream()
-                    .filter(field -> !baseFields.contains(field.getName())).toList());
-            fields.sort(Comparator.comparing(Field::getName));
-            fieldMap.put(obj.getClass().getName(), fields);
-        }
-       return fieldMap.get(obj.getClass().getName());
-    }
-
+    /**
+     * Whether {@code obj} is a wrapper, string or date value, compared as a whole. Enums are not.
+     */
     public static boolean isPrimitiveOrWrapper(Object obj) {
-        if (obj == null) {
-            return false;
-        }
-
-        Class<?> clazz = obj.getClass();
-        return clazz.isPrimitive() ||
-                Primitives.isWrapperType(clazz) ||
-                obj instanceof String ||
-                obj instanceof Date ||
-                obj instanceof LocalDateTime ||
-                obj instanceof Calendar;
-        // Enum handling moved to separate case
+        return obj != null && ClassDescriptor.of(obj.getClass()).getKind() == ClassDescriptor.Kind.LEAF;
     }
 
     public static void main(String[] args) {
@@ -3,15 +3,17 @@ package com.example.accessingdatajpa.audit;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.jayway.jsonpath.Configuration;
-import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.JsonPath;
-import com.jayway.jsonpath.Option;
-import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
-import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
+import com.fasterxml.jackson.databind.node.TextNode;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -21,11 +23,9 @@ import java.util.regex.Pattern;
 public class OptimizedFlattenedJsonDiffUtil {
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final Pattern ARRAY_PATTERN = Pattern.compile("(.*?)\\.([0-9]+)(\\..+)?");
-    private static final Configuration JSONPATH_CONFIG = Configuration.builder()
-            .jsonProvider(new JacksonJsonNodeJsonProvider())
-            .mappingProvider(new JacksonMappingProvider())
-            .options(EnumSet.of(Option.DEFAULT_PATH_LEAF_TO_NULL))
-            .build();
+    private static final int MAX_CACHED_PATHS = 100_000;
+    // flattened keys repeat across calls: the same entity fields, the same list positions
+    private static final Map<String, Segment[]> SEGMENTS = new ConcurrentHashMap<>();
 
     /**
      * Compare two flattened JSON maps and return differences
@@ -46,92 +46,154 @@ public class OptimizedFlattenedJsonDiffUtil {
     }
 
     /**
-     * Build a JSON tree structure from a flattened map
+     * Build a JSON tree structure from a flattened map. A node is an array when the segments below it
+     * are all numeric and run from 0 to n-1, as the keys of a flattened list do; otherwise, e.g. for
+     * ids or sparse numbers used as map keys, it is an object. A key below a plain value replaces it.
+     * Each key is inserted in a single descent from the root, after one pass that collects the
+     * segments below every node.
      */
-    private static JsonNode buildJsonFromFlat(Map<String, Object> flatMap) {
+    public static JsonNode buildJsonFromFlat(Map<String, Object> flatMap) {
         ObjectNode root = objectMapper.createObjectNode();
-        DocumentContext context = JsonPath.using(JSONPATH_CONFIG).parse(root);
+        Map<String, Siblings> children = new HashMap<>();
+        for (String key : flatMap.keySet()) {
+            Segment[] segments = segments(key);
+            for (int i = 1; i < segments.length; i++) {
+                // an index past the number of keys cannot be part of a dense run
+                children.computeIfAbsent(segments[i - 1].path(), path -> new Siblings(flatMap.size() - 1))
+                        .add(segments[i]);
+            }
+        }
 
         for (Map.Entry<String, Object> entry : flatMap.entrySet()) {
-            String path = "$." + entry.getKey().replace(".", ".");
-            Object value = entry.getValue();
-
-            try {
-                if (value == null) {
-                    context.set(path, null);
-                } else if (value instanceof Number) {
-                    context.set(path, value);
-                } else if (value instanceof Boolean) {
-                    context.set(path, value);
-                } else {
-                    context.set(path, value.toString());
-                }
-            } catch (Exception e) {
-                // Create missing parent structures if needed
-                createParentStructures(context, path);
-
-                // Try again after creating parent structures
-                if (value == null) {
-                    context.set(path, null);
-                } else if (value instanceof Number) {
-                    context.set(path, value);
-                } else if (value instanceof Boolean) {
-                    context.set(path, value);
-                } else {
-                    context.set(path, value.toString());
-                }
+            Segment[] segments = segments(entry.getKey());
+            ContainerNode<?> parent = root;
+            for (int i = 0; i < segments.length - 1; i++) {
+                parent = container(parent, segments[i], children.get(segments[i].path()).isArray());
             }
+            set(parent, segments[segments.length - 1], valueNode(entry.getValue()));
         }
 
-        return context.json();
+        return root;
+    }
+
+    private static Segment[] segments(String path) {
+        Segment[] segments = SEGMENTS.get(path);
+        if (segments == null) {
+            segments = Segment.parse(path);
+            // past the cap, paths of unbounded key sets (map keys, set elements) are parsed every time
+            if (SEGMENTS.size() < MAX_CACHED_PATHS) {
+                SEGMENTS.put(path, segments);
+            }
+        }
+        return segments;
     }
 
     /**
-     * Create missing parent structures for a JSON path
+     * The container under {@code segment} of {@code parent}, created if it is missing or of the wrong
+     * kind
      */
-    private static void createParentStructures(DocumentContext context, String path) {
-        String[] parts = path.split("\\.");
-        StringBuilder currentPath = new StringBuilder("$");
-
-        for (int i = 1; i < parts.length - 1; i++) {
-            String part = parts[i];
-
-            if (part.matches("[0-9]+")) {
-                // This is an array index
-                int index = Integer.parseInt(part);
-                try {
-                    // Check if array exists
-                    JsonNode node = context.read(currentPath.toString());
-                    if (node == null || !node.isArray()) {
-                        context.set(currentPath.toString(), objectMapper.createArrayNode());
-                    }
+    private static ContainerNode<?> container(ContainerNode<?> parent, Segment segment, boolean array) {
+        JsonNode node = get(parent, segment);
+        if (node != null && node.isContainerNode() && node.isArray() == array) {
+            return (ContainerNode<?>) node;
+        }
+        ContainerNode<?> container = array ? objectMapper.createArrayNode() : objectMapper.createObjectNode();
+        set(parent, segment, container);
+        return container;
+    }
 
-                    // Ensure array has enough elements
-                    ArrayNode array = (ArrayNode) context.read(currentPath.toString());
-                    while (array.size() <= index) {
-                        array.addObject();
-                    }
-                } catch (Exception e) {
-                    // Create array if it doesn't exist
-                    context.set(currentPath.toString(), objectMapper.createArrayNode());
-                    ArrayNode array = (ArrayNode) context.read(currentPath.toString());
-                    while (array.size() <= index) {
-                        array.addObject();
-                    }
+    private static JsonNode get(ContainerNode<?> parent, Segment segment) {
+        if (parent instanceof ArrayNode array) {
+            return segment.index < array.size() ? array.get(segment.index) : null;
+        }
+        return parent.get(segment.name);
+    }
+
+    private static void set(ContainerNode<?> parent, Segment segment, JsonNode value) {
+        if (parent instanceof ArrayNode array) {
+            while (array.size() <= segment.index) {
+                array.addObject();
+            }
+            array.set(segment.index, value);
+        } else {
+            ((ObjectNode) parent).set(segment.name, value);
+        }
+    }
+
+    private static JsonNode valueNode(Object value) {
+        if (value == null) {
+            return NullNode.getInstance();
+        } else if (value instanceof Integer number) {
+            return IntNode.valueOf(number);
+        } else if (value instanceof Long number) {
+            return LongNode.valueOf(number);
+        } else if (value instanceof Double number) {
+            return DoubleNode.valueOf(number);
+        } else if (value instanceof Boolean bool) {
+            return BooleanNode.valueOf(bool);
+        } else if (value instanceof Number) {
+            return objectMapper.valueToTree(value);
+        }
+        return TextNode.valueOf(value.toString());
+    }
+
+    /**
+     * A dotted path segment: its value if it is numeric, {@code -1} otherwise, and the path up to and
+     * including it
+     */
+    private record Segment(String name, int index, String path) {
+
+        static Segment[] parse(String path) {
+            String[] names = path.split("\\.");
+            Segment[] segments = new Segment[names.length];
+            int end = -1;
+            for (int i = 0; i < names.length; i++) {
+                end += names[i].length() + 1;
+                // a root entry is always a field
+                segments[i] = new Segment(names[i], i > 0 && isIndex(names[i]) ? Integer.parseInt(names[i]) : -1,
+                        path.substring(0, end));
+            }
+            return segments;
+        }
+
+        private static boolean isIndex(String name) {
+            if (name.isEmpty() || name.length() > 9) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                    return false;
                 }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The distinct segments found below one node
+     */
+    private static final class Siblings {
+        private final int maxIndex;
+        private final BitSet indexes = new BitSet();
+        private boolean named;
+
+        Siblings(int maxIndex) {
+            this.maxIndex = maxIndex;
+        }
+
+        void add(Segment segment) {
+            if (segment.index() >= 0 && segment.index() <= maxIndex) {
+                indexes.set(segment.index());
             } else {
-                // This is an object field
-                try {
-                    JsonNode node = context.read(currentPath + "." + part);
-                    if (node == null) {
-                        context.set(currentPath + "." + part, objectMapper.createObjectNode());
-                    }
-                } catch (Exception e) {
-                    context.set(currentPath + "." + part, objectMapper.createObjectNode());
-                }
+                named = true;
             }
+        }
 
-            currentPath.append(".").append(part);
+        /**
+         * Whether the segments are exactly 0 to n-1
+         */
+        boolean isArray() {
+            return !named && indexes.cardinality() == indexes.length();
         }
     }
 
@@ -0,0 +1,68 @@
+package com.example.accessingdatajpa.audit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which update audits also carry a full snapshot of the entity, so that rebuilding its state
+ * at a point in time replays at most {@code audit.snapshot.every-versions} diffs, or about
+ * {@code audit.snapshot.every-bytes} of them, after the nearest snapshot.
+ * <p>
+ * The diff chains are tracked in memory per entity. An entity that is not tracked, after a restart or
+ * an eviction, gets a snapshot with its next update.
+ */
+@Component
+public class SnapshotPolicy {
+
+    private final AuditProperties.Snapshot properties;
+    private final Cache<String, Chain> chains;
+
+    public SnapshotPolicy(AuditProperties auditProperties) {
+        this.properties = auditProperties.getSnapshot();
+        this.chains = CacheBuilder.newBuilder().maximumSize(properties.getTrackedEntities()).build();
+    }
+
+    /**
+     * Records an update diff of {@code diffBytes} and returns whether it should carry a snapshot,
+     * which then starts a new chain.
+     */
+    public boolean recordUpdate(String key, int diffBytes) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        long maxBytes = properties.getEveryBytes().toBytes();
+        boolean[] due = new boolean[1];
+        chains.asMap().compute(key, (k, chain) -> {
+            if (chain == null || chain.versions() >= properties.getEveryVersions()
+                    || chain.bytes() + diffBytes > maxBytes) {
+                due[0] = true;
+                return new Chain(0, 0);
+            }
+            return new Chain(chain.versions() + 1, chain.bytes() + diffBytes);
+        });
+        return due[0];
+    }
+
+    /**
+     * The full state of the entity is being audited, e.g. on insert. Returns whether that audit should
+     * carry a snapshot too, which it always does while snapshots are enabled.
+     */
+    public boolean recordSnapshot(String key) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        chains.put(key, new Chain(0, 0));
+        return true;
+    }
+
+    public void forget(String key) {
+        chains.invalidate(key);
+    }
+
+    /**
+     * Diffs recorded since the last snapshot.
+     */
+    private record Chain(int versions, long bytes) {
+    }
+}
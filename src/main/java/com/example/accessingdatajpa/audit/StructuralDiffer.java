@@ -0,0 +1,388 @@
+package com.example.accessingdatajpa.audit;
+
+import com.google.common.collect.Ordering;
+import org.apache.commons.collections4.comparators.NullComparator;
+import org.springframework.util.ObjectUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Diffs two object graphs in a single walk over both, without flattening either. Reports the same
+ * changes, under the same dotted paths, as {@link ObjectFlattener#flatten} of both sides followed by
+ * {@code Maps.difference}: {@code "old->new"} for a changed leaf, {@code "-old"} for a removed one and
+ * {@code "+new"} for an added one, leaving out changes between empty values. Unchanged subtrees
+ * produce no garbage: paths are only turned into strings for differences, and excluded paths from
+ * {@link AuditRules} are matched segment by segment.
+ * <p>
+ * Sets of leaf values are the exception: they are compared by hash instead of by position, and the
+ * added and removed elements are reported together under the set's path, e.g.
+ * {@code skillSet: {"+": ["Rust"], "-": ["Go"]}}. Keeping elements out of the path means they can
+ * neither be mistaken for positions nor split on a {@code '.'} they contain.
+ */
+public final class StructuralDiffer {
+
+    private static final Comparator<Object> BY_STRING = Ordering.from(
+            new NullComparator<>((o1, o2) -> String.valueOf(o1).compareTo(String.valueOf(o2))));
+
+    private final Predicate<String> excluded;
+    private final BiConsumer<String, Object> sink;
+
+    private StructuralDiffer(Predicate<String> excluded, BiConsumer<String, Object> sink) {
+        this.excluded = excluded;
+        this.sink = sink;
+    }
+
+    /**
+     * Reports the differences between {@code oldValue} and {@code newValue} to {@code sink}, keyed by
+     * path below {@code name}. Paths matched by {@code excluded} (may be {@code null}) are skipped
+     * together with everything below them. Differences found before a failure have already been
+     * reported when an exception is thrown.
+     */
+    public static void diff(String name, Object oldValue, Object newValue, Predicate<String> excluded,
+                            BiConsumer<String, Object> sink) {
+        diff(Path.root(name), oldValue, newValue, excluded, sink);
+    }
+
+    /**
+     * Reports the differences below a path another walker has reached, e.g. the sets
+     * {@link JsonTokenDiffer} leaves to this class.
+     */
+    static void diff(Path path, Object oldValue, Object newValue, Predicate<String> excluded,
+                     BiConsumer<String, Object> sink) {
+        new StructuralDiffer(excluded, sink).walk(path, oldValue, newValue);
+    }
+
+    /**
+     * The differences as a map, for callers without a sink of their own.
+     */
+    public static Map<String, Object> diff(String name, Object oldValue, Object newValue) {
+        Map<String, Object> changes = new HashMap<>();
+        diff(name, oldValue, newValue, null, changes::put);
+        return changes;
+    }
+
+    private boolean isExcluded(Path path) {
+        return path.isExcludedBy(excluded);
+    }
+
+    private void walk(Path path, Object oldValue, Object newValue) {
+        // null flattens to nothing that is ever reported, so it stands for a missing value too
+        if (oldValue == newValue || isExcluded(path)) {
+            return;
+        }
+        Object oldLeaf = leaf(oldValue);
+        Object newLeaf = leaf(newValue);
+        if (oldLeaf != null || newLeaf != null) {
+            compareLeaves(path, oldLeaf, newLeaf);
+        }
+        if (!hasChildren(oldValue, oldLeaf)) {
+            if (hasChildren(newValue, newLeaf)) {
+                walkChildren(path, null, newValue);
+            }
+        } else {
+            walkChildren(path, oldValue, hasChildren(newValue, newLeaf) ? newValue : null);
+        }
+    }
+
+    /**
+     * The value {@link ObjectFlattener} puts under the path itself, or {@code null} if it only puts
+     * entries below it, or none at all.
+     */
+    static Object leaf(Object value) {
+        if (value == null || value instanceof LocalDateTime) {
+            return null;
+        }
+        switch (ClassDescriptor.of(value.getClass()).getKind()) {
+            case LEAF:
+                return value;
+            case ENUM:
+                return ((Enum<?>) value).name();
+            case COLLECTION:
+                return ((Collection<?>) value).isEmpty() ? List.of() : null;
+            case ARRAY:
+                return ((Object[]) value).length == 0 ? new Object[0] : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean hasChildren(Object value, Object leaf) {
+        return value != null && leaf == null && !(value instanceof LocalDateTime);
+    }
+
+    private void compareLeaves(Path path, Object oldLeaf, Object newLeaf) {
+        if (oldLeaf == null) {
+            if (!ObjectUtils.isEmpty(newLeaf)) sink.accept(path.toString(), "+" + newLeaf);
+        } else if (newLeaf == null) {
+            if (!ObjectUtils.isEmpty(oldLeaf)) sink.accept(path.toString(), "-" + oldLeaf);
+        } else if (!Objects.equals(oldLeaf, newLeaf)
+                && (!ObjectUtils.isEmpty(oldLeaf) || !ObjectUtils.isEmpty(newLeaf))) {
+            sink.accept(path.toString(), oldLeaf + "->" + newLeaf);
+        }
+    }
+
+    /**
+     * Walks the children of one or both values, either of which may be {@code null}.
+     */
+    private void walkChildren(Path path, Object oldValue, Object newValue) {
+        Object sample = oldValue != null ? oldValue : newValue;
+        Class<?> type = sample.getClass();
+        ClassDescriptor.Kind kind = ClassDescriptor.of(type).getKind();
+        boolean sameShape = oldValue == null || newValue == null || newValue.getClass() == type
+                || kind != ClassDescriptor.Kind.BEAN && ClassDescriptor.of(newValue.getClass()).getKind() == kind
+                && (oldValue instanceof List) == (newValue instanceof List)
+                && (oldValue instanceof Set) == (newValue instanceof Set);
+        if (!sameShape) {
+            walkByName(path, children(oldValue), children(newValue));
+        } else if (kind == ClassDescriptor.Kind.BEAN) {
+            walkFields(path, ClassDescriptor.of(type), oldValue, newValue);
+        } else if (kind == ClassDescriptor.Kind.MAP) {
+            walkMaps(path, (Map<?, ?>) oldValue, (Map<?, ?>) newValue);
+        } else if (sample instanceof List || kind == ClassDescriptor.Kind.ARRAY) {
+            walkElements(path, elements(oldValue), elements(newValue));
+        } else if (sample instanceof Set) {
+            walkSets(path, (Set<?>) oldValue, (Set<?>) newValue);
+        } else {
+            // other unordered collections are compared in the flattener's string order
+            walkElements(path, sorted(oldValue), sorted(newValue));
+        }
+    }
+
+    private void walkFields(Path path, ClassDescriptor descriptor, Object oldValue, Object newValue) {
+        for (FieldAccessor field : descriptor.getAuditedFields()) {
+            if (oldValue != null && newValue != null && field.getField().getType().isPrimitive()) {
+                // primitives never have children: compare their boxed values here instead of walking them
+                if (!field.isEqual(oldValue, newValue)) {
+                    Path child = path.child(field.getName());
+                    if (!isExcluded(child)) {
+                        sink.accept(child.toString(), field.get(oldValue) + "->" + field.get(newValue));
+                    }
+                }
+            } else {
+                walk(path.child(field.getName()), oldValue == null ? null : field.get(oldValue),
+                        newValue == null ? null : field.get(newValue));
+            }
+        }
+    }
+
+    private void walkMaps(Path path, Map<?, ?> oldMap, Map<?, ?> newMap) {
+        if (oldMap != null && newMap != null && !sameKeyType(oldMap, newMap)) {
+            // e.g. enum keys on one side and their names on the other: match keys the way they are printed
+            walkByName(path, children(oldMap), children(newMap));
+            return;
+        }
+        if (oldMap != null) {
+            for (Map.Entry<?, ?> entry : oldMap.entrySet()) {
+                walk(path.child(String.valueOf(entry.getKey())), entry.getValue(),
+                        newMap == null ? null : newMap.get(entry.getKey()));
+            }
+        }
+        if (newMap != null) {
+            for (Map.Entry<?, ?> entry : newMap.entrySet()) {
+                if (oldMap == null || !oldMap.containsKey(entry.getKey())) {
+                    walk(path.child(String.valueOf(entry.getKey())), null, entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void walkElements(Path path, Iterator<?> oldElements, Iterator<?> newElements) {
+        int index = 0;
+        while (oldElements.hasNext() || newElements.hasNext()) {
+            walk(path.child(index++), oldElements.hasNext() ? oldElements.next() : null,
+                    newElements.hasNext() ? newElements.next() : null);
+        }
+    }
+
+    private void walkSets(Path path, Set<?> oldSet, Set<?> newSet) {
+        Set<?> oldElements = oldSet == null ? Set.of() : oldSet;
+        Set<?> newElements = newSet == null ? Set.of() : newSet;
+        if (!hasOnlyLeaves(oldElements) || !hasOnlyLeaves(newElements)) {
+            // elements without a value of their own are diffed field by field, in string order
+            walkElements(path, sorted(oldSet), sorted(newSet));
+            return;
+        }
+        List<Object> removed = new ArrayList<>();
+        List<Object> added = new ArrayList<>();
+        for (Object element : oldElements) {
+            if (element != null && !newElements.contains(element)) {
+                addElement(path, removed, element);
+            }
+        }
+        for (Object element : newElements) {
+            if (element != null && !oldElements.contains(element)) {
+                addElement(path, added, element);
+            }
+        }
+        if (!removed.isEmpty() || !added.isEmpty()) {
+            added.sort(BY_STRING);
+            removed.sort(BY_STRING);
+            Map<String, List<Object>> change = new LinkedHashMap<>();
+            if (!added.isEmpty()) change.put("+", added);
+            if (!removed.isEmpty()) change.put("-", removed);
+            sink.accept(path.toString(), change);
+        }
+    }
+
+    static boolean hasOnlyLeaves(Set<?> set) {
+        for (Object element : set) {
+            if (element != null && leaf(element) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addElement(Path path, List<Object> elements, Object element) {
+        Object leaf = leaf(element);
+        if (ObjectUtils.isEmpty(leaf)) {
+            return;
+        }
+        if (!isExcluded(path.child(String.valueOf(leaf)))) {
+            elements.add(leaf);
+        }
+    }
+
+    private void walkByName(Path path, Map<String, Object> oldChildren, Map<String, Object> newChildren) {
+        for (Map.Entry<String, Object> entry : oldChildren.entrySet()) {
+            walk(path.child(entry.getKey()), entry.getValue(), newChildren.get(entry.getKey()));
+        }
+        for (Map.Entry<String, Object> entry : newChildren.entrySet()) {
+            if (!oldChildren.containsKey(entry.getKey())) {
+                walk(path.child(entry.getKey()), null, entry.getValue());
+            }
+        }
+    }
+
+    private static boolean sameKeyType(Map<?, ?> oldMap, Map<?, ?> newMap) {
+        if (oldMap.isEmpty() || newMap.isEmpty()) {
+            return true;
+        }
+        Object oldKey = oldMap.keySet().iterator().next();
+        Object newKey = newMap.keySet().iterator().next();
+        return oldKey == null || newKey == null || oldKey.getClass() == newKey.getClass();
+    }
+
+    /**
+     * The children of a value keyed by their path segment, for values of different shapes.
+     */
+    private static Map<String, Object> children(Object value) {
+        Map<String, Object> children = new LinkedHashMap<>();
+        if (value == null) {
+            return children;
+        }
+        ClassDescriptor descriptor = ClassDescriptor.of(value.getClass());
+        switch (descriptor.getKind()) {
+            case MAP:
+                ((Map<?, ?>) value).forEach((key, child) -> children.put(String.valueOf(key), child));
+                break;
+            case COLLECTION:
+            case ARRAY:
+                int index = 0;
+                for (Iterator<?> elements = value instanceof List || value.getClass().isArray()
+                        ? elements(value) : sorted(value); elements.hasNext(); ) {
+                    children.put(Integer.toString(index++), elements.next());
+                }
+                break;
+            default:
+                for (FieldAccessor field : descriptor.getAuditedFields()) {
+                    children.put(field.getName(), field.get(value));
+                }
+        }
+        return children;
+    }
+
+    static Iterator<?> elements(Object value) {
+        if (value == null) {
+            return List.of().iterator();
+        }
+        return value instanceof Collection<?> collection ? collection.iterator() : Arrays.asList((Object[]) value).iterator();
+    }
+
+    static Iterator<?> sorted(Object value) {
+        if (value == null) {
+            return List.of().iterator();
+        }
+        Object[] elements = ((Collection<?>) value).toArray();
+        Arrays.sort(elements, BY_STRING);
+        return Arrays.asList(elements).iterator();
+    }
+
+    /**
+     * A position in the walk, turned into its dotted string only when asked.
+     */
+    static final class Path implements AuditRules.Segments {
+        private final Path parent;
+        private final String name;
+        private final int index;
+        private final int depth;
+        private String value;
+
+        Path(Path parent, String name, int index) {
+            this.parent = parent;
+            this.name = name;
+            this.index = index;
+            this.depth = parent == null ? 1 : parent.depth + 1;
+        }
+
+        static Path root(String name) {
+            return new Path(null, name, 0);
+        }
+
+        @Override
+        public int depth() {
+            return depth;
+        }
+
+        @Override
+        public Path parent() {
+            return parent;
+        }
+
+        @Override
+        public boolean lastIs(String name, int index) {
+            return this.name != null ? this.name.equals(name) : this.index == index;
+        }
+
+        Path child(String name) {
+            return new Path(this, name, 0);
+        }
+
+        Path child(int index) {
+            return new Path(this, null, index);
+        }
+
+        /**
+         * Whether {@code excluded} (may be {@code null}) matches this path, segment by segment if it is
+         * an {@link AuditRules.PathFilter}.
+         */
+        boolean isExcludedBy(Predicate<String> excluded) {
+            if (excluded == null) {
+                return false;
+            }
+            return excluded instanceof AuditRules.PathFilter filter ? filter.test(this) : excluded.test(toString());
+        }
+
+        @Override
+        public String toString() {
+            if (value == null) {
+                String segment = name != null ? name : Integer.toString(index);
+                value = parent == null ? segment : parent + "." + segment;
+            }
+            return value;
+        }
+    }
+}
@@ -3,8 +3,7 @@ package com.example.accessingdatajpa.audit.domain;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-
-import java.util.Map;
+import lombok.ToString;
 
 @Data
 @AllArgsConstructor
@@ -14,8 +13,17 @@ public class AuditMessage {
     private String entity;
     private String entityId;
     private String table;
-    private Map<String,Object> payload;
+    /**
+     * Audited entity or diff, already serialized to UTF-8 JSON.
+     */
+    @ToString.Exclude
+    private byte[] payload;
     private String updateLocation;
     private boolean delete;
     private String updateBy;
+    /**
+     * Full state of the entity after this change, for update audits chosen by the snapshot policy.
+     */
+    @ToString.Exclude
+    private byte[] snapshot;
 }
@@ -1,15 +1,17 @@
 package com.example.accessingdatajpa.audit.model;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonRawValue;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
 import org.hibernate.annotations.CreationTimestamp;
-import org.hibernate.annotations.JdbcTypeCode;
-import org.hibernate.type.SqlTypes;
+import org.hibernate.annotations.Type;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.Map;
 
 @Getter
 @Setter
@@ -25,12 +27,48 @@ public class AuditLog {
     private Boolean latest = true;
     private String action = "Create";
     private String parentId;
+    /**
+     * Not mapped, like {@link #snapshot}: the column only exists once its opt-in migration has run.
+     * Carried to {@code AuditBatchWriter}, which writes it when the table has it.
+     */
+    @Transient
+    private String tenantId;
 
-    @JdbcTypeCode( SqlTypes.JSON )
+    /**
+     * UTF-8 JSON as produced by the audit listener, stored as is. Serialized to API clients as the JSON
+     * itself, see {@link #getDifferenceListJson()}.
+     */
+    @Getter(onMethod_ = @JsonIgnore)
+    @Type(JsonbBytesType.class)
     @Column(columnDefinition = "jsonb")
-    private Map<String,Object> differenceList;
+    private byte[] differenceList;
+
+    /**
+     * Full state of the entity after this change, stored periodically so point-in-time
+     * reconstruction does not replay the whole history. Not mapped, since the column only exists once
+     * its opt-in migration has run; {@code AuditHistoryService#stateAsOf} reads it over JDBC.
+     */
+    @Getter(onMethod_ = @JsonIgnore)
+    @Transient
+    private byte[] snapshot;
 
     @CreationTimestamp
     
     private LocalDateTime createdTimestamp;
+
+    @JsonRawValue
+    @JsonProperty("differenceList")
+    public String getDifferenceListJson() {
+        return json(differenceList);
+    }
+
+    @JsonRawValue
+    @JsonProperty("snapshot")
+    public String getSnapshotJson() {
+        return json(snapshot);
+    }
+
+    private static String json(byte[] utf8) {
+        return utf8 == null ? null : new String(utf8, StandardCharsets.UTF_8);
+    }
 }
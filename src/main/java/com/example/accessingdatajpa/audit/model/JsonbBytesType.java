@@ -0,0 +1,76 @@
+package com.example.accessingdatajpa.audit.model;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.usertype.UserType;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Maps already serialized UTF-8 JSON to a {@code jsonb} column without parsing or re-serializing it.
+ * The value is bound as an untyped parameter so Postgres converts it to {@code jsonb} itself.
+ */
+public class JsonbBytesType implements UserType<byte[]> {
+
+    @Override
+    public int getSqlType() {
+        return Types.OTHER;
+    }
+
+    @Override
+    public Class<byte[]> returnedClass() {
+        return byte[].class;
+    }
+
+    @Override
+    public boolean equals(byte[] x, byte[] y) {
+        return Arrays.equals(x, y);
+    }
+
+    @Override
+    public int hashCode(byte[] x) {
+        return Arrays.hashCode(x);
+    }
+
+    @Override
+    public byte[] nullSafeGet(ResultSet rs, int position, SharedSessionContractImplementor session, Object owner)
+            throws SQLException {
+        String json = rs.getString(position);
+        return json == null ? null : json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void nullSafeSet(PreparedStatement st, byte[] value, int index, SharedSessionContractImplementor session)
+            throws SQLException {
+        if (value == null) {
+            st.setNull(index, Types.OTHER);
+        } else {
+            st.setObject(index, new String(value, StandardCharsets.UTF_8), Types.OTHER);
+        }
+    }
+
+    @Override
+    public byte[] deepCopy(byte[] value) {
+        return value == null ? null : value.clone();
+    }
+
+    @Override
+    public boolean isMutable() {
+        return true;
+    }
+
+    @Override
+    public Serializable disassemble(byte[] value) {
+        return deepCopy(value);
+    }
+
+    @Override
+    public byte[] assemble(Serializable cached, Object owner) {
+        return deepCopy((byte[]) cached);
+    }
+}
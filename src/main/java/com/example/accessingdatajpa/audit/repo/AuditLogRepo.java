@@ -1,20 +1,83 @@
-
 package com.example.accessingdatajpa.audit.repo;
 
 
 import com.example.accessingdatajpa.audit.model.AuditLog;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface AuditLogRepo extends CrudRepository<AuditLog, Long>, JpaRepository<AuditLog, Long>, JpaSpecificationExecutor<AuditLog> {
+
+    /**
+     * Rows fetched per round trip when streaming history.
+     */
+    String STREAM_FETCH_SIZE = "500";
+
     AuditLog findFirstByEntityNameAndEntityIdAndLatest(String entityName, String entityId, Boolean latest);
+
+    /**
+     * @deprecated loads the whole history at once; use
+     * {@link #findByEntityNameAndEntityIdOrderByIdAsc(String, String, KeysetScrollPosition, Limit)} or
+     * {@link #streamByEntityNameAndEntityIdOrderByIdAsc(String, String)}
+     */
+    @Deprecated
     List<AuditLog> findAllByEntityNameAndEntityId(String entityName, String entityId);
 
+    /**
+     * @deprecated loads the history of every entity of the type at once; use
+     * {@link #findByEntityNameOrderByEntityIdAscIdAsc(String, KeysetScrollPosition, Limit)} or
+     * {@link #streamByEntityNameOrderByEntityIdAscIdAsc(String)}
+     */
+    @Deprecated
     List<AuditLog> findAllByEntityName(String entityName);
 
+    /**
+     * One page of an entity's history, oldest first. Start from {@code ScrollPosition.keyset()} and
+     * continue from {@link Window#positionAt(int)} of the last row, served by the
+     * {@code (entity_name, entity_id, id)} index without an offset.
+     */
+    Window<AuditLog> findByEntityNameAndEntityIdOrderByIdAsc(String entityName, String entityId,
+                                                              KeysetScrollPosition position, Limit limit);
+
+    /**
+     * One page of the history of every entity of a type, ordered by entity and then oldest first.
+     */
+    Window<AuditLog> findByEntityNameOrderByEntityIdAscIdAsc(String entityName, KeysetScrollPosition position,
+                                                              Limit limit);
+
+    /**
+     * Streams an entity's history through a database cursor. Must be consumed and closed within a
+     * read-only transaction; see {@code AuditHistoryService#export}.
+     */
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<AuditLog> streamByEntityNameAndEntityIdOrderByIdAsc(String entityName, String entityId);
+
+    /**
+     * Streams the history of every entity of a type through a database cursor.
+     */
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<AuditLog> streamByEntityNameOrderByEntityIdAscIdAsc(String entityName);
+
+    /**
+     * The rows following {@code afterId} up to {@code at}, to replay on top of a full state.
+     */
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<AuditLog> streamByEntityNameAndEntityIdAndIdGreaterThanAndCreatedTimestampLessThanEqualOrderByIdAsc(
+            String entityName, String entityId, Long afterId, LocalDateTime at);
+
 }
@@ -0,0 +1,54 @@
+--liquibase formatted sql
+
+--changeset audit:001-partition-audit-log dbms:postgresql context:partitioning
+--comment: Range-partition ctrm_audit_log_v2 by created_timestamp month, keeping the existing rows as a legacy partition
+alter table ctrm_audit_log_v2 rename to ctrm_audit_log_v2_legacy;
+alter table ctrm_audit_log_v2_legacy alter column id drop identity if exists;
+alter table ctrm_audit_log_v2_legacy alter column id drop default;
+alter table ctrm_audit_log_v2_legacy drop constraint if exists ctrm_audit_log_v2_pkey;
+update ctrm_audit_log_v2_legacy set created_timestamp = timestamp '1970-01-01' where created_timestamp is null;
+alter table ctrm_audit_log_v2_legacy alter column created_timestamp set not null;
+
+create table ctrm_audit_log_v2 (like ctrm_audit_log_v2_legacy including defaults) partition by range (created_timestamp);
+create sequence ctrm_audit_log_id_seq;
+select setval('ctrm_audit_log_id_seq', coalesce((select max(id) from ctrm_audit_log_v2_legacy), 0) + 1, false);
+alter table ctrm_audit_log_v2 alter column id set default nextval('ctrm_audit_log_id_seq');
+alter sequence ctrm_audit_log_id_seq owned by ctrm_audit_log_v2.id;
+alter table ctrm_audit_log_v2 add primary key (id, created_timestamp);
+
+--changeset audit:002-check-legacy-audit-range dbms:postgresql context:partitioning splitStatements:false
+--comment: Declares the legacy partition's range up front, unvalidated so only a brief lock is taken, so that the attach below does not have to scan the table under an ACCESS EXCLUSIVE lock
+--preconditions onFail:MARK_RAN
+--precondition-sql-check expectedResult:0 select count(*) from pg_inherits where inhrelid = 'ctrm_audit_log_v2_legacy'::regclass
+do $$
+declare
+    next_month timestamp := date_trunc('month', localtimestamp) + interval '1 month';
+begin
+    execute format('alter table ctrm_audit_log_v2_legacy add constraint ctrm_audit_log_v2_legacy_range check (created_timestamp < %L) not valid',
+                   next_month);
+end
+$$;
+
+--changeset audit:002-validate-legacy-audit-range dbms:postgresql context:partitioning
+--comment: Scans the legacy rows in its own transaction, holding only a SHARE UPDATE EXCLUSIVE lock
+--preconditions onFail:MARK_RAN
+--precondition-sql-check expectedResult:1 select count(*) from pg_constraint where conname = 'ctrm_audit_log_v2_legacy_range' and not convalidated
+alter table ctrm_audit_log_v2_legacy validate constraint ctrm_audit_log_v2_legacy_range;
+
+--changeset audit:002-attach-legacy-audit-partition dbms:postgresql context:partitioning splitStatements:false
+--comment: The legacy rows cover everything up to the end of the current month; monthly partitions start after it. Rows of months without a partition go to the default partition until AuditPartitionManager moves them out.
+do $$
+declare
+    next_month timestamp := date_trunc('month', localtimestamp) + interval '1 month';
+begin
+    execute format('alter table ctrm_audit_log_v2 attach partition ctrm_audit_log_v2_legacy for values from (minvalue) to (%L)',
+                   next_month);
+    execute format('create table ctrm_audit_log_v2_p%s partition of ctrm_audit_log_v2 for values from (%L) to (%L)',
+                   to_char(next_month, 'YYYYMM'), next_month, next_month + interval '1 month');
+    create table ctrm_audit_log_v2_default partition of ctrm_audit_log_v2 default;
+end
+$$;
+
+--changeset audit:003-audit-latest-index dbms:postgresql
+--comment: Partial index serving the latest-row lookup and retire update, created on every partition
+create index if not exists ctrm_audit_log_v2_latest_idx on ctrm_audit_log_v2 (entity_name, entity_id, created_timestamp) where latest;
@@ -0,0 +1,5 @@
+--liquibase formatted sql
+
+--changeset audit:004-audit-history-index
+--comment: Keyset pagination of audit history by (entity_name, entity_id, id)
+create index if not exists ctrm_audit_log_v2_history_idx on ctrm_audit_log_v2 (entity_name, entity_id, id);
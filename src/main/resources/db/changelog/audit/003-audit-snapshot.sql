@@ -0,0 +1,5 @@
+--liquibase formatted sql
+
+--changeset audit:005-audit-snapshot
+--comment: Periodic full snapshots bounding point-in-time reconstruction
+alter table ctrm_audit_log_v2 add column snapshot jsonb;
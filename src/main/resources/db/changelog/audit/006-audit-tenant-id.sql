@@ -0,0 +1,5 @@
+--liquibase formatted sql
+
+--changeset audit:006-audit-tenant-id
+--comment: Tenant of each audit row, needed for tenant sub-partitions; written by AuditBatchWriter once present
+alter table ctrm_audit_log_v2 add column tenant_id varchar(255);
@@ -0,0 +1,159 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditBatchWriterTests {
+
+    private final DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:audit-writer;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+    private final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AuditMetrics metrics = new AuditMetrics(registry);
+
+    @AfterEach
+    void dropTable() {
+        jdbcTemplate.execute("drop table ctrm_audit_log_v2");
+    }
+
+    @Test
+    public void testCopyFallsBackToBatchedInsertsWithoutPostgres() throws Exception {
+        createTable("tenant_id varchar(255), snapshot jsonb, ");
+        var properties = new AuditProperties();
+        properties.getWriter().setCopyThreshold(1);
+        var writer = writer(properties);
+        writer.start();
+        writer.submit(message("1", "{\"firstName\":\"A\"}"));
+        writer.submit(message("1", "{\"firstName\":\"A->B\"}"));
+        writer.stop();
+
+        assertThat(jdbcTemplate.queryForList("select action, latest, difference_list from ctrm_audit_log_v2 " +
+                "order by id")).extracting(row -> row.get("action") + " " + row.get("latest") + " "
+                + row.get("difference_list"))
+                .containsExactly("Create false {\"firstName\":\"A\"}", "Update true {\"firstName\":\"A->B\"}");
+    }
+
+    @Test
+    public void testColumnsOfOptionalMigrationsAreWrittenOnlyOnceTheyExist() throws Exception {
+        createTable("");
+        var writer = writer(new AuditProperties());
+        writer.start();
+        writer.submit(message("1", "{\"firstName\":\"A\"}"));
+        writer.stop();
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from ctrm_audit_log_v2", Integer.class)).isEqualTo(1);
+    }
+
+    @Test
+    public void testBatchWithSeveralVersionsOfAnEntityKeepsOnlyTheLastOneLatest() throws Exception {
+        createTable("");
+        var writer = writer(new AuditProperties());
+        // queued before the writer starts, so they all go out in one batch
+        writer.submit(message("1", "{\"firstName\":\"A\"}"));
+        writer.submit(message("2", "{\"firstName\":\"X\"}"));
+        writer.submit(message("1", "{\"firstName\":\"A->B\"}"));
+        writer.submit(message("1", "{\"firstName\":\"B->C\"}"));
+        writer.start();
+        writer.stop();
+
+        assertThat(latestRows()).containsExactly("1 {\"firstName\":\"B->C\"}", "2 {\"firstName\":\"X\"}");
+    }
+
+    @Test
+    public void testLatestRowOfAnEarlierBatchIsRetired() throws Exception {
+        createTable("");
+        var first = writer(new AuditProperties());
+        first.start();
+        first.submit(message("1", "{\"firstName\":\"A\"}"));
+        first.stop();
+
+        var second = writer(new AuditProperties());
+        second.start();
+        second.submit(message("1", "{\"firstName\":\"A->B\"}"));
+        second.stop();
+
+        assertThat(latestRows()).containsExactly("1 {\"firstName\":\"A->B\"}");
+        assertThat(jdbcTemplate.queryForObject("select count(*) from ctrm_audit_log_v2", Integer.class)).isEqualTo(2);
+    }
+
+    @Test
+    public void testFullQueueBlocksForTheTimeoutThenDrops() {
+        createTable("");
+        var properties = new AuditProperties();
+        properties.getWriter().setQueueCapacity(1);
+        properties.getWriter().setBlockTimeout(Duration.ofMillis(50));
+        var writer = writer(properties);
+        writer.submit(message("1", "{\"firstName\":\"A\"}"));
+
+        long start = System.nanoTime();
+        writer.submit(message("1", "{\"firstName\":\"A->B\"}"));
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(writer.getDroppedCount()).isEqualTo(1);
+        assertThat(writer.getQueueDepth()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSpooledAuditsRecordTheirQueueWait(@TempDir Path directory) throws Exception {
+        createTable("");
+        var properties = new AuditProperties();
+        properties.getSpool().setEnabled(true);
+        properties.getSpool().setDirectory(directory);
+        properties.getSpool().setSegmentSize(DataSize.ofKilobytes(64));
+        var writer = writer(properties);
+        writer.start();
+        try {
+            writer.submit(message("1", "{\"firstName\":\"A\"}"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (jdbcTemplate.queryForObject("select count(*) from ctrm_audit_log_v2", Integer.class) == 0
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+        } finally {
+            writer.stop();
+        }
+
+        assertThat(registry.get("audit.queue.wait").tags("entity", "Customer", "tenant", "System").timer().count())
+                .isEqualTo(1);
+    }
+
+    private List<String> latestRows() {
+        return jdbcTemplate.queryForList("select entity_id, difference_list from ctrm_audit_log_v2 where latest " +
+                "order by entity_id").stream()
+                .map(row -> row.get("entity_id") + " " + row.get("difference_list"))
+                .toList();
+    }
+
+    private void createTable(String optionalColumns) {
+        jdbcTemplate.execute("create domain if not exists jsonb as varchar");
+        jdbcTemplate.execute("create table ctrm_audit_log_v2 (" +
+                "id bigint generated by default as identity primary key, entity_name varchar(255), " +
+                "entity_id varchar(255), table_name varchar(255), latest boolean, action varchar(255), " +
+                "parent_id varchar(255), " + optionalColumns + "difference_list jsonb, created_timestamp timestamp)");
+    }
+
+    private AuditBatchWriter writer(AuditProperties properties) {
+        return new AuditBatchWriter(jdbcTemplate, new DataSourceTransactionManager(dataSource), properties,
+                new AuditExecutor(properties, metrics), metrics);
+    }
+
+    private static AuditMessage message(String entityId, String json) {
+        return new AuditMessage("System", "Customer", entityId, "customer", json.getBytes(StandardCharsets.UTF_8),
+                "", false, "user", null);
+    }
+}
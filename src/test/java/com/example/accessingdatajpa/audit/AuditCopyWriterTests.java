@@ -0,0 +1,56 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.model.AuditLog;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditCopyWriterTests {
+
+    private static final byte[] TIMESTAMP = "2024-06-01T10:15:30".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testRowIsTabSeparatedWithNulls() throws Exception {
+        var row = row("{\"firstName\":\"A->B\"}");
+
+        assertThat(encode(row)).isEqualTo(
+                "Customer\t42\tcustomer\tt\tUpdate\t\\N\tSystem\t{\"firstName\":\"A->B\"}\t\\N\t2024-06-01T10:15:30\n");
+    }
+
+    @Test
+    public void testDelimitersAndBackslashesAreEscaped() throws Exception {
+        var row = row("{\"note\":\"a\\\"b\\\\c\"}");
+        row.setEntityId("4\t2");
+        row.setTableName("cust\r\nomer");
+
+        assertThat(encode(row)).isEqualTo(
+                "Customer\t4\\t2\tcust\\r\\nomer\tt\tUpdate\t\\N\tSystem\t{\"note\":\"a\\\\\"b\\\\\\\\c\"}\t\\N\t2024-06-01T10:15:30\n");
+    }
+
+    @Test
+    public void testMultiByteCharactersArePassedThrough() throws Exception {
+        var row = row("{\"city\":\"Z\u00fcrich\u2192\u6771\u4eac\"}");
+
+        assertThat(encode(row)).contains("\t{\"city\":\"Z\u00fcrich\u2192\u6771\u4eac\"}\t");
+    }
+
+    private static AuditLog row(String json) {
+        var row = new AuditLog();
+        row.setEntityName("Customer");
+        row.setEntityId("42");
+        row.setTableName("customer");
+        row.setAction("Update");
+        row.setTenantId("System");
+        row.setDifferenceList(json.getBytes(StandardCharsets.UTF_8));
+        return row;
+    }
+
+    private static String encode(AuditLog row) throws Exception {
+        var out = new ByteArrayOutputStream();
+        AuditCopyWriter.writeRow(out, row, AuditBatchWriter.COLUMNS, TIMESTAMP);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
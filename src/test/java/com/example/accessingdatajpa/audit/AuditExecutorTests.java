@@ -0,0 +1,83 @@
+package com.example.accessingdatajpa.audit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditExecutorTests {
+
+    private final List<Integer> ran = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testSpillIsBoundedAndFifo() throws Exception {
+        var properties = new AuditProperties();
+        properties.getExecutor().setThreads(1);
+        properties.getExecutor().setVirtualThreads(false);
+        properties.getExecutor().setQueueCapacity(1);
+        properties.getExecutor().setSpillCapacity(2);
+        properties.getExecutor().setSaturationPolicy(AuditProperties.SaturationPolicy.SPILL);
+        var executor = new AuditExecutor(properties, new AuditMetrics(new SimpleMeterRegistry()));
+        var release = new CountDownLatch(1);
+        executor.execute("a", () -> awaitQuietly(release));
+
+        // one task fits the lane's queue and two are spilled
+        for (int i = 1; i <= 3; i++) {
+            int n = i;
+            executor.execute("a", () -> ran.add(n));
+        }
+        assertThat(executor.getStats().spilled()).isEqualTo(2);
+
+        var caller = new Thread(() -> executor.execute("a", () -> ran.add(4)));
+        caller.start();
+        caller.join(200);
+        assertThat(caller.isAlive()).as("caller waits for spill space").isTrue();
+
+        release.countDown();
+        caller.join(TimeUnit.SECONDS.toMillis(5));
+        executor.shutdown();
+
+        assertThat(ran).containsExactly(1, 2, 3, 4);
+        assertThat(executor.getStats().spilled()).isZero();
+    }
+
+    @Test
+    public void testDiscardWaitsForTheTimeoutThenDropsTheTask() throws Exception {
+        var properties = new AuditProperties();
+        properties.getExecutor().setThreads(1);
+        properties.getExecutor().setVirtualThreads(false);
+        properties.getExecutor().setQueueCapacity(1);
+        properties.getExecutor().setSaturationPolicy(AuditProperties.SaturationPolicy.DISCARD);
+        properties.getExecutor().setBlockTimeout(Duration.ofMillis(50));
+        var registry = new SimpleMeterRegistry();
+        var executor = new AuditExecutor(properties, new AuditMetrics(registry));
+        var release = new CountDownLatch(1);
+        executor.execute("a", () -> awaitQuietly(release));
+        executor.execute("a", () -> ran.add(1));
+
+        long start = System.nanoTime();
+        executor.execute("a", () -> ran.add(2));
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+
+        release.countDown();
+        executor.shutdown();
+
+        assertThat(ran).containsExactly(1);
+        assertThat(executor.getStats().discarded()).isEqualTo(1);
+        assertThat(registry.get("audit.executor.discarded").functionCounter().count()).isEqualTo(1);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import com.example.accessingdatajpa.audit.model.AuditLog;
+import com.example.accessingdatajpa.audit.repo.AuditLogRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+public class AuditHistoryServiceTests {
+
+    private static final String URL = "jdbc:h2:mem:audit-history;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private final DriverManagerDataSource dataSource = new DriverManagerDataSource(URL);
+    private final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    private final AuditMetrics metrics = new AuditMetrics(new SimpleMeterRegistry());
+    private EntityManagerFactory entityManagerFactory;
+    private AuditLogRepo auditLogRepo;
+    private AuditHistoryService historyService;
+    private TransactionTemplate readOnly;
+
+    @BeforeEach
+    void buildRepository() {
+        var registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.JAKARTA_JDBC_URL, URL)
+                .applySetting(AvailableSettings.DIALECT, "org.hibernate.dialect.H2Dialect")
+                .applySetting(AvailableSettings.PHYSICAL_NAMING_STRATEGY, new CamelCaseToUnderscoresNamingStrategy())
+                .build();
+        entityManagerFactory = new MetadataSources(registry)
+                .addAnnotatedClass(AuditLog.class)
+                .buildMetadata()
+                .buildSessionFactory();
+        var entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        auditLogRepo = new JpaRepositoryFactory(entityManager).getRepository(AuditLogRepo.class);
+        historyService = new AuditHistoryService(auditLogRepo, entityManager, jdbcTemplate);
+        readOnly = new TransactionTemplate(new JpaTransactionManager(entityManagerFactory));
+        readOnly.setReadOnly(true);
+    }
+
+    @AfterEach
+    void dropTable() {
+        entityManagerFactory.close();
+        jdbcTemplate.execute("drop table ctrm_audit_log_v2");
+    }
+
+    @Test
+    public void testHistoryIsReadableBeforeTheOptionalMigrations() throws Exception {
+        createTable("");
+        write(message("1", "{\"firstName\":\"A\"}", null), message("1", "{\"firstName\":\"A->B\"}", null));
+
+        assertThat(inTransaction(() -> historyService.history("Customer", "1", null, 10).getContent()))
+                .extracting(AuditLog::getAction).containsExactly("Create", "Update");
+        assertThat(auditLogRepo.findFirstByEntityNameAndEntityIdAndLatest("Customer", "1", true).getDifferenceListJson())
+                .isEqualTo("{\"firstName\":\"A->B\"}");
+        assertThatThrownBy(() -> inTransaction(() -> historyService.stateAsOf("Customer", "1", LocalDateTime.now())))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testHistoryPagesContinueFromTheLastRowOfThePreviousPage() throws Exception {
+        createTable("");
+        write(message("1", "{\"firstName\":\"A\"}", null), message("2", "{\"firstName\":\"X\"}", null),
+                message("1", "{\"firstName\":\"A->B\"}", null), message("1", "{\"firstName\":\"B->C\"}", null));
+
+        List<String> diffs = inTransaction(() -> {
+            List<String> read = new ArrayList<>();
+            var page = historyService.history("Customer", "1", null, 2);
+            read.addAll(page.getContent().stream().map(AuditLog::getDifferenceListJson).toList());
+            assertThat(page.hasNext()).isTrue();
+            page = historyService.history("Customer", "1", (KeysetScrollPosition) page.positionAt(page.size() - 1), 2);
+            read.addAll(page.getContent().stream().map(AuditLog::getDifferenceListJson).toList());
+            assertThat(page.hasNext()).isFalse();
+            return read;
+        });
+
+        assertThat(diffs).containsExactly("{\"firstName\":\"A\"}", "{\"firstName\":\"A->B\"}",
+                "{\"firstName\":\"B->C\"}");
+    }
+
+    @Test
+    public void testExportStreamsTheHistoryInOrder() throws Exception {
+        createTable("");
+        write(message("2", "{\"firstName\":\"X\"}", null), message("1", "{\"firstName\":\"A\"}", null),
+                message("1", "{\"firstName\":\"A->B\"}", null));
+        List<String> exported = new ArrayList<>();
+
+        long entityRows = inTransaction(() -> historyService.export("Customer", "1",
+                row -> exported.add(row.getEntityId() + " " + row.getAction())));
+        long typeRows = inTransaction(() -> historyService.export("Customer",
+                row -> exported.add(row.getEntityId() + " " + row.getAction())));
+
+        assertThat(entityRows).isEqualTo(2);
+        assertThat(typeRows).isEqualTo(3);
+        assertThat(exported).containsExactly("1 Create", "1 Update", "1 Create", "1 Update", "2 Create");
+    }
+
+    @Test
+    public void testStateAsOfStartsFromTheNewestSnapshot() throws Exception {
+        createTable("tenant_id varchar(255), snapshot jsonb, ");
+        // lastName is only in the second snapshot, so it shows which one the replay started from
+        write(message("1", "{\"firstName\":\"A\"}", "{\"firstName\":\"A\",\"uuid\":\"1\"}"),
+                message("1", "{\"firstName\":\"A->B\"}", null),
+                message("1", "{\"firstName\":\"B->C\"}", "{\"firstName\":\"C\",\"lastName\":\"Z\",\"uuid\":\"1\"}"),
+                message("1", "{\"firstName\":\"C->D\"}", null));
+
+        var state = inTransaction(() -> historyService.stateAsOf("Customer", "1", LocalDateTime.now().plusMinutes(1)));
+        var before = inTransaction(() -> historyService.stateAsOf("Customer", "1", LocalDateTime.now().minusMinutes(1)));
+
+        assertThat(state).hasValueSatisfying(fields -> assertThat(fields)
+                .containsExactly(entry("firstName", "D"), entry("lastName", "Z"), entry("uuid", "1")));
+        assertThat(before).isEmpty();
+    }
+
+    private void write(AuditMessage... messages) throws Exception {
+        var properties = new AuditProperties();
+        var writer = new AuditBatchWriter(jdbcTemplate, new DataSourceTransactionManager(dataSource), properties,
+                new AuditExecutor(properties, metrics), metrics);
+        // submitted before the worker starts, so they are written as one batch
+        for (AuditMessage message : messages) {
+            writer.submit(message);
+        }
+        writer.start();
+        writer.stop();
+    }
+
+    private <T> T inTransaction(Supplier<T> read) {
+        return readOnly.execute(status -> read.get());
+    }
+
+    private void createTable(String optionalColumns) {
+        jdbcTemplate.execute("create domain if not exists jsonb as varchar");
+        jdbcTemplate.execute("create table ctrm_audit_log_v2 (" +
+                "id bigint generated by default as identity primary key, entity_name varchar(255), " +
+                "entity_id varchar(255), table_name varchar(255), latest boolean, action varchar(255), " +
+                "parent_id varchar(255), " + optionalColumns + "difference_list jsonb, created_timestamp timestamp)");
+    }
+
+    private static AuditMessage message(String entityId, String json, String snapshot) {
+        return new AuditMessage("System", "Customer", entityId, "customer", json.getBytes(StandardCharsets.UTF_8),
+                "", false, "user", snapshot == null ? null : snapshot.getBytes(StandardCharsets.UTF_8));
+    }
+}
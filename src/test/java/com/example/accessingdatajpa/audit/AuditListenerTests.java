@@ -0,0 +1,92 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Customer;
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditListenerTests {
+
+    private static SessionFactoryImplementor sessionFactory;
+
+    private final List<AuditMessage> saved = new CopyOnWriteArrayList<>();
+
+    private final AuditService auditService = new AuditService(null) {
+        @Override
+        public void saveAudit(AuditMessage audit) {
+            saved.add(audit);
+        }
+    };
+
+    @BeforeAll
+    static void buildSessionFactory() {
+        var registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:audit-listener")
+                .applySetting(AvailableSettings.DIALECT, "org.hibernate.dialect.H2Dialect")
+                .build();
+        sessionFactory = (SessionFactoryImplementor) new MetadataSources(registry)
+                .addAnnotatedClass(Customer.class)
+                .buildMetadata()
+                .buildSessionFactory();
+    }
+
+    @AfterAll
+    static void closeSessionFactory() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void testOnlyDirtyPropertiesAreDiffedOnUpdate() {
+        var listener = listener();
+        EntityPersister persister = sessionFactory.getMappingMetamodel().getEntityDescriptor(Customer.class);
+        var customer = customer();
+        Object[] oldState = persister.getValues(customer);
+        customer.setFirstName("B");
+        customer.setLastName("Y");
+        Object[] state = persister.getValues(customer);
+
+        // Hibernate reports lastName clean, e.g. because it is not mapped as updatable
+        int[] dirty = {persister.getPropertyIndex("firstName")};
+        listener.onPostUpdate(new PostUpdateEvent(customer, customer.getUuid(), state, oldState, dirty, persister, null));
+        // without dirty indexes every property is compared
+        listener.onPostUpdate(new PostUpdateEvent(customer, customer.getUuid(), state, oldState, null, persister, null));
+
+        assertThat(saved).extracting(message -> new String(message.getPayload(), StandardCharsets.UTF_8))
+                .containsExactly("{\"firstName\":\"A->B\"}", "{\"firstName\":\"A->B\",\"lastName\":\"X->Y\"}");
+    }
+
+    private AuditListener listener() {
+        var properties = new AuditProperties();
+        var metrics = new AuditMetrics(new SimpleMeterRegistry());
+        var snapshotPolicy = new SnapshotPolicy(properties);
+        var plans = new AuditPlans(properties);
+        plans.compile(sessionFactory.getMappingMetamodel());
+        var executor = new AuditExecutor(properties, metrics);
+        return new AuditListener(new AuditRateLimiter(auditService, executor, snapshotPolicy, metrics, properties), null,
+                properties, executor, plans, snapshotPolicy, metrics);
+    }
+
+    private static Customer customer() {
+        var customer = new Customer();
+        customer.setUuid(UUID.randomUUID());
+        customer.setTenantId("Acme");
+        customer.setFirstName("A");
+        customer.setLastName("X");
+        return customer;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.accessingdatajpa.audit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditMetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AuditMetrics metrics = new AuditMetrics(registry);
+
+    @Test
+    public void testPerAuditMetersAreTaggedByEntityAndTenant() {
+        metrics.recordDiff("Customer", "Acme", TimeUnit.MILLISECONDS.toNanos(2), 3);
+        metrics.recordDiff("Customer", "Globex", TimeUnit.MILLISECONDS.toNanos(4), 1);
+        metrics.recordSerialize("Trade", "Acme", TimeUnit.MILLISECONDS.toNanos(1), 120);
+        metrics.error("listener", "Customer", "Acme");
+        metrics.partial("diff", "Customer", "Acme");
+
+        var acme = registry.get("audit.diff.duration").tags("entity", "Customer", "tenant", "Acme").timer();
+        assertThat(acme.count()).isEqualTo(1);
+        assertThat(acme.totalTime(TimeUnit.MILLISECONDS)).isEqualTo(2);
+        assertThat(registry.get("audit.diff.entries").tags("entity", "Customer", "tenant", "Globex").summary()
+                .totalAmount()).isEqualTo(1);
+        assertThat(registry.get("audit.payload.bytes").tags("entity", "Trade", "tenant", "Acme").summary()
+                .totalAmount()).isEqualTo(120);
+        assertThat(registry.get("audit.errors").tags("stage", "listener", "entity", "Customer", "tenant", "Acme")
+                .counter().count()).isEqualTo(1);
+        assertThat(registry.get("audit.partial").tags("stage", "diff", "entity", "Customer", "tenant", "Acme")
+                .counter().count()).isEqualTo(1);
+        assertThat(registry.find("audit.diff.duration").timers()).hasSize(2);
+    }
+
+    @Test
+    public void testBatchMetersAreTaggedByModeAndMissingTenantIsNamed() {
+        metrics.recordWrite("copy", TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.recordWrite("insert", TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.rowWritten("Customer", null);
+
+        assertThat(registry.get("audit.write.duration").tag("mode", "copy").timer().count()).isEqualTo(1);
+        assertThat(registry.get("audit.write.duration").tag("mode", "insert").timer().count()).isEqualTo(1);
+        assertThat(registry.get("audit.rows.written").tags("entity", "Customer", "tenant", "none").counter().count())
+                .isEqualTo(1);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.accessingdatajpa.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditPartitionManagerTests {
+
+    private static final YearMonth JUNE = YearMonth.of(2024, 6);
+
+    @Test
+    public void testPartitionsAreCreatedAfterTheNewestOne() {
+        var partitions = List.of("ctrm_audit_log_v2_legacy", "ctrm_audit_log_v2_p202406", "ctrm_audit_log_v2_p202407");
+
+        assertThat(AuditPartitionManager.createStatements(partitions, JUNE, 2, 0)).containsExactly(
+                "create table if not exists ctrm_audit_log_v2_p202408 partition of ctrm_audit_log_v2 " +
+                        "for values from ('2024-08-01') to ('2024-09-01')");
+    }
+
+    @Test
+    public void testFirstPartitionStartsAtCurrentMonth() {
+        assertThat(AuditPartitionManager.createStatements(List.of(), YearMonth.of(2024, 12), 1, 0))
+                .containsExactly(
+                        "create table if not exists ctrm_audit_log_v2_p202412 partition of ctrm_audit_log_v2 " +
+                                "for values from ('2024-12-01') to ('2025-01-01')",
+                        "create table if not exists ctrm_audit_log_v2_p202501 partition of ctrm_audit_log_v2 " +
+                                "for values from ('2025-01-01') to ('2025-02-01')");
+    }
+
+    @Test
+    public void testTenantSubPartitions() {
+        var statements = AuditPartitionManager.createStatements(List.of("ctrm_audit_log_v2_p202406"), JUNE, 1, 2);
+
+        assertThat(statements).containsExactly(
+                "create table if not exists ctrm_audit_log_v2_p202407 partition of ctrm_audit_log_v2 " +
+                        "for values from ('2024-07-01') to ('2024-08-01') partition by hash (tenant_id)",
+                "create table if not exists ctrm_audit_log_v2_p202407_t0 partition of ctrm_audit_log_v2_p202407 " +
+                        "for values with (modulus 2, remainder 0)",
+                "create table if not exists ctrm_audit_log_v2_p202407_t1 partition of ctrm_audit_log_v2_p202407 " +
+                        "for values with (modulus 2, remainder 1)");
+    }
+
+    @Test
+    public void testDefaultPartitionRowsAreMovedIntoTheNewPartition() {
+        assertThat(AuditPartitionManager.moveStatement(JUNE, 0)).isEqualTo("do $$ begin " +
+                "create table ctrm_audit_log_v2_p202406 (like ctrm_audit_log_v2 including defaults); " +
+                "insert into ctrm_audit_log_v2_p202406 select * from ctrm_audit_log_v2_default " +
+                "where created_timestamp >= '2024-06-01' and created_timestamp < '2024-07-01'; " +
+                "delete from ctrm_audit_log_v2_default " +
+                "where created_timestamp >= '2024-06-01' and created_timestamp < '2024-07-01'; " +
+                "alter table ctrm_audit_log_v2 attach partition ctrm_audit_log_v2_p202406 " +
+                "for values from ('2024-06-01') to ('2024-07-01'); end $$");
+    }
+
+    @Test
+    public void testOnlyMonthlyPartitionsBeforeCutoffExpire() {
+        var partitions = List.of("ctrm_audit_log_v2_p202404", "ctrm_audit_log_v2_legacy",
+                "ctrm_audit_log_v2_p202406", "ctrm_audit_log_v2_p202405");
+
+        assertThat(AuditPartitionManager.expired(partitions, JUNE))
+                .containsExactly("ctrm_audit_log_v2_p202404", "ctrm_audit_log_v2_p202405");
+    }
+}
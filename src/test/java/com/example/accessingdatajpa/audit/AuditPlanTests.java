@@ -0,0 +1,140 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import com.example.accessingdatajpa.Customer;
+import com.example.accessingdatajpa.audit.AuditPlan.PropertyKind;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditPlanTests {
+
+    private static SessionFactoryImplementor sessionFactory;
+    private static EntityPersister persister;
+
+    @BeforeAll
+    static void buildSessionFactory() {
+        var registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:audit-plan")
+                .applySetting(AvailableSettings.DIALECT, "org.hibernate.dialect.H2Dialect")
+                .build();
+        sessionFactory = (SessionFactoryImplementor) new MetadataSources(registry)
+                .addAnnotatedClass(Customer.class)
+                .buildMetadata()
+                .buildSessionFactory();
+        persister = sessionFactory.getMappingMetamodel().getEntityDescriptor(Customer.class);
+    }
+
+    @AfterAll
+    static void closeSessionFactory() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void testPropertyKindsFollowTheDeclaredType() {
+        assertThat(PropertyKind.of(int.class)).isEqualTo(PropertyKind.SIMPLE);
+        assertThat(PropertyKind.of(Double.class)).isEqualTo(PropertyKind.SIMPLE);
+        assertThat(PropertyKind.of(String.class)).isEqualTo(PropertyKind.SIMPLE);
+        assertThat(PropertyKind.of(Date.class)).isEqualTo(PropertyKind.SIMPLE);
+        assertThat(PropertyKind.of(LocalDateTime.class)).isEqualTo(PropertyKind.TIMESTAMP);
+        assertThat(PropertyKind.of(Object.class)).isEqualTo(PropertyKind.DYNAMIC);
+        assertThat(PropertyKind.of(Serializable.class)).isEqualTo(PropertyKind.DYNAMIC);
+        assertThat(PropertyKind.of(Address.class)).isEqualTo(PropertyKind.COMPLEX);
+        assertThat(PropertyKind.of(List.class)).isEqualTo(PropertyKind.COMPLEX);
+        assertThat(PropertyKind.of(BigDecimal.class)).isEqualTo(PropertyKind.COMPLEX);
+        assertThat(PropertyKind.of(LocalDate.class)).isEqualTo(PropertyKind.COMPLEX);
+
+        LocalDateTime now = LocalDateTime.of(2024, 1, 1, 12, 0);
+        assertThat(PropertyKind.TIMESTAMP.isEffectivelyEqual(now, now.plusNanos(999))).isTrue();
+        assertThat(PropertyKind.TIMESTAMP.isEffectivelyEqual(now, now.plusNanos(1_000_000))).isFalse();
+        assertThat(PropertyKind.DYNAMIC.isEffectivelyEqual(now, now.plusNanos(999))).isTrue();
+        assertThat(PropertyKind.DYNAMIC.isEffectivelyEqual(1, 1L)).isFalse();
+    }
+
+    @Test
+    public void testPlanClassifiesMappedPropertiesAndJsonColumns() {
+        var plan = plan();
+
+        assertThat(plan.getEntityName()).isEqualTo("Customer");
+        assertThat(plan.getTableName()).isEqualTo("customer");
+        assertThat(plan.isExcluded()).isFalse();
+        assertThat(plan.getIdentifierName()).isEqualTo("uuid");
+        assertThat(kindOf(plan, "firstName")).isEqualTo(PropertyKind.SIMPLE);
+        assertThat(kindOf(plan, "birthday")).isEqualTo(PropertyKind.TIMESTAMP);
+        assertThat(kindOf(plan, "address")).isEqualTo(PropertyKind.COMPLEX);
+        assertThat(kindOf(plan, "skillSet")).isEqualTo(PropertyKind.COMPLEX);
+        assertThat(plan.isJsonField(persister.getPropertyIndex("address"))).isTrue();
+        assertThat(plan.isJsonField(persister.getPropertyIndex("addressList"))).isTrue();
+        assertThat(plan.isJsonField(persister.getPropertyIndex("status"))).isTrue();
+        assertThat(plan.isJsonField(persister.getPropertyIndex("firstName"))).isFalse();
+        assertThat(plan.isJsonField(persister.getPropertyIndex("birthday"))).isFalse();
+    }
+
+    @Test
+    public void testCopyStateSharesNoMutableValue() {
+        var plan = plan();
+        var customer = new Customer();
+        customer.setUuid(UUID.randomUUID());
+        customer.setFirstName("A");
+        customer.setAddress(new Address("s", "c"));
+        customer.setAddressList(new ArrayList<>(List.of(new Address("s1", "c1"))));
+        customer.setSkillSet(Set.of("Java"));
+        customer.setStatus(Map.of("active", true));
+        Object[] state = persister.getValues(customer);
+
+        Object[] copy = plan.copyState(state);
+
+        int firstName = persister.getPropertyIndex("firstName");
+        assertThat(copy[firstName]).isSameAs(state[firstName]);
+        for (String property : List.of("address", "addressList", "skillSet", "status")) {
+            int i = persister.getPropertyIndex(property);
+            assertThat(copy[i]).as(property).isNotSameAs(state[i]);
+        }
+        assertThat(copy[persister.getPropertyIndex("skillSet")]).isEqualTo(Set.of("Java"));
+        assertThat(copy[persister.getPropertyIndex("status")]).isEqualTo(Map.of("active", true));
+        customer.getAddress().setStreet("changed");
+        customer.getAddressList().get(0).setStreet("changed");
+        customer.getAddressList().add(new Address("s2", "c2"));
+        assertThat(((Address) copy[persister.getPropertyIndex("address")]).getStreet()).isEqualTo("s");
+        assertThat((List<?>) copy[persister.getPropertyIndex("addressList")]).singleElement()
+                .extracting(address -> ((Address) address).getStreet()).isEqualTo("s1");
+    }
+
+    @Test
+    public void testPlansAreLookedUpByMappedClass() {
+        var plans = new AuditPlans(new AuditProperties());
+        assertThat(plans.get(Customer.class)).as("before compile").isNull();
+
+        plans.compile(sessionFactory.getMappingMetamodel());
+
+        assertThat(plans.get(Customer.class)).isSameAs(plans.get(Customer.class));
+        assertThat(plans.get(Customer.class).getEntityName()).isEqualTo("Customer");
+        assertThat(plans.get(Address.class)).isNull();
+    }
+
+    private static AuditPlan plan() {
+        return AuditPlan.of(persister, new AuditProperties());
+    }
+
+    private static PropertyKind kindOf(AuditPlan plan, String property) {
+        return plan.getPropertyKinds()[persister.getPropertyIndex(property)];
+    }
+}
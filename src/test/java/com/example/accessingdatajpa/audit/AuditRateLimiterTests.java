@@ -0,0 +1,222 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import com.example.accessingdatajpa.audit.domain.EntityInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditRateLimiterTests {
+
+    private final List<AuditMessage> saved = new CopyOnWriteArrayList<>();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AuditMetrics metrics = new AuditMetrics(registry);
+
+    private final AuditExecutor executor = new AuditExecutor(new AuditProperties(), metrics);
+
+    private final AuditService auditService = new AuditService(null) {
+        @Override
+        public void saveAudit(AuditMessage audit) {
+            saved.add(audit);
+        }
+    };
+
+    @Test
+    public void testTokenBucketRefills() {
+        long start = 0;
+        var bucket = new AuditRateLimiter.TokenBucket(10, Duration.ofSeconds(1), start);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(bucket.tryAcquire(start)).isTrue();
+        }
+        assertThat(bucket.tryAcquire(start)).isFalse();
+        assertThat(bucket.tryAcquire(start + TimeUnit.MILLISECONDS.toNanos(50))).isFalse();
+        assertThat(bucket.tryAcquire(start + TimeUnit.MILLISECONDS.toNanos(100))).isTrue();
+        // never more than the burst
+        assertThat(bucket.tryAcquire(start + TimeUnit.SECONDS.toNanos(60))).isTrue();
+        for (int i = 0; i < 9; i++) {
+            assertThat(bucket.tryAcquire(start + TimeUnit.SECONDS.toNanos(60))).isTrue();
+        }
+        assertThat(bucket.tryAcquire(start + TimeUnit.SECONDS.toNanos(60))).isFalse();
+    }
+
+    @Test
+    public void testCoalesceHoldsAndMergesUpdates() {
+        var properties = properties(AuditProperties.RateLimitPolicy.COALESCE);
+        var limiter = new AuditRateLimiter(auditService, executor, new SnapshotPolicy(properties), metrics, properties);
+        List<AuditRateLimiter.PendingUpdate> emitted = new ArrayList<>();
+        limiter.onHeldUpdate(emitted::add, (plan, state) -> state.clone());
+
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"A"}, new Object[]{"B"}, 0))).isTrue();
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"B", 1}, new Object[]{"C", 1}, 0))).isFalse();
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"C", 1}, new Object[]{"D", 2}, 0, 1))).isFalse();
+        assertThat(limiter.getHeldCount()).isEqualTo(1);
+
+        limiter.admitInsertOrDelete(entityInfo("1"));
+
+        assertThat(emitted).hasSize(1);
+        assertThat(emitted.get(0).oldState()).containsExactly("B", 1);
+        assertThat(emitted.get(0).state()).containsExactly("D", 2);
+        assertThat(emitted.get(0).dirtyProperties()).containsExactly(0, 1);
+        assertThat(limiter.getHeldCount()).isZero();
+        assertThat(limiter.getDeferredCounts()).isEqualTo(Map.of("Acme/Customer", 2L));
+        assertThat(limiter.getMergedCounts()).isEqualTo(Map.of("Acme/Customer", 1L));
+        assertThat(registry.get("audit.rate.limited").tags("outcome", "merged", "entity", "Customer", "tenant", "Acme")
+                .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHeldUpdatesAreReleasedOnTheLaneOfTheirEntity() throws Exception {
+        var properties = properties(AuditProperties.RateLimitPolicy.COALESCE);
+        var limiter = new AuditRateLimiter(auditService, executor, new SnapshotPolicy(properties), metrics, properties);
+        List<String> threads = new CopyOnWriteArrayList<>();
+        limiter.onHeldUpdate(update -> threads.add(Thread.currentThread().getName()), (plan, state) -> state.clone());
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"A"}, new Object[]{"B"}, 0))).isTrue();
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"B"}, new Object[]{"C"}, 0))).isFalse();
+
+        limiter.start();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (threads.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+        } finally {
+            limiter.stop();
+        }
+
+        assertThat(threads).singleElement().asString().startsWith("audit-").isNotEqualTo("audit-rate-limiter");
+        assertThat(limiter.getHeldCount()).isZero();
+    }
+
+    @Test
+    public void testEntityRatesApplyToEachTenant() {
+        var properties = properties(AuditProperties.RateLimitPolicy.SAMPLE);
+        properties.getRateLimit().setTenantRate(0);
+        properties.getRateLimit().setEntityRates(Map.of("Customer", 1.0));
+        properties.getRateLimit().setLowPriorityEntities(Set.of("Customer"));
+        properties.getRateLimit().setSampleRate(0);
+        var limiter = new AuditRateLimiter(auditService, executor, new SnapshotPolicy(properties), metrics, properties);
+
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"A"}, new Object[]{"B"}, 0))).isTrue();
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"B"}, new Object[]{"C"}, 0))).isFalse();
+        var otherTenant = new EntityInfo("customer", "Customer", "2", "Globex", "user");
+        assertThat(limiter.admitUpdate(new AuditRateLimiter.PendingUpdate(null, "2", new Object[]{"A"},
+                new Object[]{"B"}, new int[]{0}, otherTenant))).isTrue();
+    }
+
+    @Test
+    public void testSampleShedsLowPriorityUpdates() {
+        var properties = properties(AuditProperties.RateLimitPolicy.SAMPLE);
+        properties.getRateLimit().setLowPriorityEntities(Set.of("Customer"));
+        properties.getRateLimit().setSampleRate(0);
+        var snapshotPolicy = new SnapshotPolicy(properties);
+        var limiter = new AuditRateLimiter(auditService, executor, snapshotPolicy, metrics, properties);
+
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"A"}, new Object[]{"B"}, 0))).isTrue();
+        snapshotPolicy.recordSnapshot("Customer:1");
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"B"}, new Object[]{"C"}, 0))).isFalse();
+        assertThat(limiter.getShedCounts()).isEqualTo(Map.of("Acme/Customer", 1L));
+        // the next audited update starts a new snapshot chain
+        assertThat(snapshotPolicy.recordUpdate("Customer:1", 10)).isTrue();
+
+        properties.getRateLimit().setLowPriorityEntities(Set.of());
+        assertThat(limiter.admitUpdate(update("1", new Object[]{"C"}, new Object[]{"D"}, 0))).isTrue();
+    }
+
+    @Test
+    public void testSpillReplaysInOrderAtTheAllowedRate(@TempDir Path directory) throws Exception {
+        var properties = properties(AuditProperties.RateLimitPolicy.SPILL);
+        properties.getRateLimit().setTenantRate(5);
+        properties.getRateLimit().setBurst(Duration.ofMillis(200));
+        properties.getRateLimit().setSpillDirectory(directory);
+        properties.getSpool().setSegmentSize(org.springframework.util.unit.DataSize.ofKilobytes(64));
+        var limiter = new AuditRateLimiter(auditService, executor, new SnapshotPolicy(properties), metrics, properties);
+        limiter.start();
+        try {
+            for (int i = 0; i < 4; i++) {
+                limiter.submit(message(String.valueOf(i)));
+            }
+            // counted when spilled, unlike what was saved so far, which depends on how fast replay starts
+            assertThat(limiter.getDeferredCounts()).isEqualTo(Map.of("Acme/Customer", 3L));
+
+            awaitSaved(4);
+            assertThat(saved).extracting(AuditMessage::getEntityId).containsExactly("0", "1", "2", "3");
+        } finally {
+            limiter.stop();
+        }
+    }
+
+    @Test
+    public void testAuditsSpilledBeforeARestartStayAhead(@TempDir Path directory) throws Exception {
+        var properties = properties(AuditProperties.RateLimitPolicy.SPILL);
+        properties.getRateLimit().setTenantRate(0);
+        properties.getRateLimit().setEntityRates(Map.of("Order", 1.0));
+        properties.getRateLimit().setSpillDirectory(directory);
+        properties.getSpool().setSegmentSize(org.springframework.util.unit.DataSize.ofKilobytes(64));
+        try (var spool = new AuditSpool(directory, 64 * 1024, false, new ObjectMapper())) {
+            spool.append(message("Order", "0"));
+            spool.append(message("Order", "1"));
+        }
+        var limiter = new AuditRateLimiter(auditService, executor, new SnapshotPolicy(properties), metrics, properties);
+        limiter.start();
+        try {
+            // Customer is not limited, but the second Order replays a second later and the tenant's
+            // spilled audits go first
+            limiter.submit(message("2"));
+            assertThat(limiter.getDeferredCounts()).isEqualTo(Map.of("Acme/Customer", 1L));
+
+            awaitSaved(3);
+            assertThat(saved).extracting(AuditMessage::getEntityId).containsExactly("0", "1", "2");
+        } finally {
+            limiter.stop();
+        }
+    }
+
+    private void awaitSaved(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (saved.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static AuditProperties properties(AuditProperties.RateLimitPolicy policy) {
+        var properties = new AuditProperties();
+        properties.getRateLimit().setEnabled(true);
+        properties.getRateLimit().setTenantRate(1);
+        properties.getRateLimit().setBurst(Duration.ofSeconds(1));
+        properties.getRateLimit().setOverflowPolicy(policy);
+        return properties;
+    }
+
+    private static AuditRateLimiter.PendingUpdate update(String id, Object[] oldState, Object[] state, int... dirty) {
+        return new AuditRateLimiter.PendingUpdate(null, id, oldState, state, dirty, entityInfo(id));
+    }
+
+    private static EntityInfo entityInfo(String id) {
+        return new EntityInfo("customer", "Customer", id, "Acme", "user");
+    }
+
+    private static AuditMessage message(String id) {
+        return message("Customer", id);
+    }
+
+    private static AuditMessage message(String entity, String id) {
+        return new AuditMessage("Acme", entity, id, "customer", "{}".getBytes(StandardCharsets.UTF_8), "", false,
+                "user", null);
+    }
+}
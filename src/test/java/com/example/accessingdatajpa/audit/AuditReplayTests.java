@@ -0,0 +1,169 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class AuditReplayTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testSnapshotIsFlattened() throws Exception {
+        var replay = AuditReplay.from(json("""
+                {"uuid":"1","firstName":"A","salary":1000.0,"address":{"street":"s","city":"c"},"skillSet":["Java","Go"],
+                 "nickname":null}"""));
+
+        assertThat(replay.state()).containsExactly(
+                entry("address.city", "c"), entry("address.street", "s"), entry("firstName", "A"),
+                entry("salary", "1000.0"), entry("skillSet.0", "Java"), entry("skillSet.1", "Go"), entry("uuid", "1"));
+    }
+
+    @Test
+    public void testDiffsAreReplayed() throws Exception {
+        var replay = AuditReplay.from(json("""
+                {"uuid":"1","firstName":"A","salary":1000.0,"skillSet":["Java","Go"]}"""));
+
+        replay.apply(json("""
+                {"firstName":"A->B","salary":"1000.0->1200.0","skillSet.1":"-Go","address":{"street":"s"}}"""));
+        replay.apply(json("""
+                {"address.city":"+c","skillSet.0":"Java->Rust","tradeId":"T-1"}"""));
+
+        assertThat(replay.state()).containsExactly(
+                entry("address.city", "c"), entry("address.street", "s"), entry("firstName", "B"),
+                entry("salary", "1200.0"), entry("skillSet.0", "Rust"), entry("tradeId", "T-1"), entry("uuid", "1"));
+    }
+
+    @Test
+    public void testSetElementsAreAddedAndRemoved() throws Exception {
+        var replay = AuditReplay.from(json("""
+                {"uuid":"1","skillSet":["Java","Go","C"]}"""));
+
+        replay.apply(json("""
+                {"skillSet":{"+":["Rust","a.b->c"],"-":["Go"]}}"""));
+        replay.apply(json("""
+                {"tags":{"+":["new"]}}"""));
+
+        assertThat(replay.state()).containsExactly(
+                entry("skillSet.0", "C"), entry("skillSet.1", "Java"), entry("skillSet.2", "Rust"),
+                entry("skillSet.3", "a.b->c"), entry("tags.0", "new"), entry("uuid", "1"));
+    }
+
+    @Test
+    public void testNumericSetElementsAreNotPositions() throws Exception {
+        var replay = AuditReplay.from(objectMapper.valueToTree(flatten(Map.of("ids", Set.of(5, 7),
+                "versions", Set.of(10L, 9L)))));
+
+        replay.apply(objectMapper.valueToTree(StructuralDiffer.diff("ids", Set.of(5, 7), Set.of(1, 7))));
+        replay.apply(objectMapper.valueToTree(StructuralDiffer.diff("ids", Set.of(1, 7), Set.of(0, 1, 7))));
+        replay.apply(objectMapper.valueToTree(StructuralDiffer.diff("versions", Set.of(10L, 9L), Set.of(10L))));
+
+        assertThat(replay.state()).isEqualTo(flatten(Map.of("ids", Set.of(0, 1, 7), "versions", Set.of(10L))));
+    }
+
+    @Test
+    public void testNullNewValueRemovesProperty() throws Exception {
+        var replay = AuditReplay.from(json("""
+                {"uuid":"1","lastName":"L","birthday":[2024,6,1]}"""));
+
+        replay.apply(json("""
+                {"lastName":"L->null","birthday":"2024-06-01->2024-07-01"}"""));
+
+        assertThat(replay.state()).containsExactly(entry("birthday", "2024-07-01"), entry("uuid", "1"));
+    }
+
+    @Test
+    public void testArrowInsideOldValueUsesCurrentState() throws Exception {
+        var replay = AuditReplay.from(json("""
+                {"note":"a->b"}"""));
+
+        replay.apply(json("""
+                {"note":"a->b->c"}"""));
+
+        assertThat(replay.state()).containsExactly(entry("note", "c"));
+    }
+
+    @Test
+    public void testSnapshotAndDiffsReplayToFlattenedFinalEntity() throws Exception {
+        assertReplaysToFlattenedFinalEntity(false);
+    }
+
+    @Test
+    public void testSnapshotAndTokenDiffsReplayToFlattenedFinalEntity() throws Exception {
+        assertReplaysToFlattenedFinalEntity(true);
+    }
+
+    private void assertReplaysToFlattenedFinalEntity(boolean tokens) throws Exception {
+        Map<String, Object> before = new LinkedHashMap<>();
+        before.put("uuid", "1");
+        before.put("firstName", "A");
+        before.put("salary", 1000.0);
+        before.put("birthday", LocalDateTime.of(2024, 6, 1, 10, 30));
+        before.put("address", null);
+        before.put("addressList", List.of(new Address("s1", "c1"), new Address("s2", "c2")));
+        before.put("skillSet", Set.of("Java", "Go"));
+        before.put("ids", Set.of(5, 7, 12));
+        before.put("status", Map.of("active", true));
+        before.put("degrees", Map.of(Qualification.BS, Set.of(2010, 2014)));
+        Map<String, Object> after = new LinkedHashMap<>(before);
+        after.put("firstName", "B");
+        after.put("salary", 1200.0);
+        after.put("birthday", LocalDateTime.of(2024, 7, 1, 10, 30));
+        after.put("address", new Address("s", "c"));
+        after.put("addressList", List.of(new Address("s1", "c9")));
+        after.put("skillSet", Set.of("Java", "C", "Rust"));
+        after.put("ids", Set.of(1, 7, 100));
+        after.put("status", Map.of("active", false, "vip", true));
+        after.put("degrees", Map.of(Qualification.BS, Set.of(2014), Qualification.MS, Set.of(2016)));
+
+        var replay = AuditReplay.from(objectMapper.valueToTree(flatten(before)));
+        Map<String, Object> changes = new HashMap<>();
+        for (Map.Entry<String, Object> property : before.entrySet()) {
+            String name = property.getKey();
+            Object oldValue = property.getValue();
+            Object newValue = after.get(name);
+            if (Objects.equals(oldValue, newValue)) {
+                continue;
+            }
+            if (ObjectFlattener.isPrimitiveOrWrapper(newValue) || newValue instanceof LocalDateTime) {
+                changes.put(name, oldValue + "->" + newValue);
+            } else if (oldValue == null) {
+                changes.put(name, newValue);
+            } else if (tokens) {
+                JsonTokenDiffer.diff(name, oldValue, newValue, objectMapper, null, changes::put);
+            } else {
+                StructuralDiffer.diff(name, oldValue, newValue, null, changes::put);
+            }
+        }
+        replay.apply(objectMapper.valueToTree(changes));
+
+        assertThat(replay.state()).isEqualTo(flatten(after));
+    }
+
+    private static Map<String, String> flatten(Map<String, Object> properties) {
+        Map<String, String> flat = new TreeMap<>();
+        properties.forEach((name, value) -> {
+            if (value != null) {
+                AuditReplay.flattenProperty(name, value, null, flat);
+            }
+        });
+        return flat;
+    }
+
+    private JsonNode json(String json) throws Exception {
+        return objectMapper.readTree(json);
+    }
+}
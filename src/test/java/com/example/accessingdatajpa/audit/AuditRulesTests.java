@@ -0,0 +1,110 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditRulesTests {
+
+    private static final String[] PROPERTIES = {"address", "addressList", "firstName", "salary", "updatedBy"};
+
+    @Test
+    public void testTenantsWithoutRulesUseGlobalSettings() {
+        var properties = new AuditProperties();
+        properties.setIgnoredFields(Set.of("updatedBy"));
+        properties.getTenants().put("Acme", tenant(rules -> rules.setExcludedProperties(Set.of("Customer.salary"))));
+
+        var compiled = AuditRules.compile("Customer", PROPERTIES, properties);
+
+        AuditRules other = compiled.forTenant("Other");
+        assertThat(other.isExcluded()).isFalse();
+        assertThat(other.isAudited(3)).isTrue();
+        assertThat(other.isAudited(4)).isFalse();
+        assertThat(compiled.forTenant(null)).isSameAs(other);
+
+        AuditRules acme = compiled.forTenant("Acme");
+        assertThat(acme.isAudited(3)).isFalse();
+        assertThat(acme.isAudited(4)).isFalse();
+        assertThat(acme.isAudited(2)).isTrue();
+    }
+
+    @Test
+    public void testEntityRules() {
+        var properties = new AuditProperties();
+        properties.setExcludedEntities(Set.of("AuditLog"));
+        properties.getTenants().put("Acme", tenant(rules -> rules.setIncludedEntities(Set.of("Customer"))));
+        properties.getTenants().put("Beta", tenant(rules -> rules.setExcludedEntities(Set.of("Customer"))));
+
+        assertThat(AuditRules.compile("AuditLog", PROPERTIES, properties).forTenant("Acme").isExcluded()).isTrue();
+        assertThat(AuditRules.compile("Customer", PROPERTIES, properties).forTenant("Acme").isExcluded()).isFalse();
+        assertThat(AuditRules.compile("Customer", PROPERTIES, properties).forTenant("Beta").isExcluded()).isTrue();
+        assertThat(AuditRules.compile("DynamicCustomer", PROPERTIES, properties).forTenant("Acme").isExcluded()).isTrue();
+        assertThat(AuditRules.compile("DynamicCustomer", PROPERTIES, properties).forTenant("Beta").isExcluded()).isFalse();
+    }
+
+    @Test
+    public void testIncludedProperties() {
+        var properties = new AuditProperties();
+        properties.getTenants().put("Acme", tenant(rules -> rules.setIncludedProperties(Set.of("Customer.firstName",
+                "*.address"))));
+
+        AuditRules customer = AuditRules.compile("Customer", PROPERTIES, properties).forTenant("Acme");
+        assertThat(customer.isAudited(0)).isTrue();
+        assertThat(customer.isAudited(1)).isFalse();
+        assertThat(customer.isAudited(2)).isTrue();
+        assertThat(customer.isAudited(3)).isFalse();
+
+        AuditRules other = AuditRules.compile("DynamicCustomer", PROPERTIES, properties).forTenant("Acme");
+        assertThat(other.isAudited(0)).isTrue();
+        assertThat(other.isAudited(2)).isFalse();
+    }
+
+    @Test
+    public void testExcludedPathsAreNeverFlattened() {
+        var properties = new AuditProperties();
+        properties.getTenants().put("Acme", tenant(rules -> rules.setExcludedProperties(Set.of("Customer.address.city",
+                "Customer.addressList.*.street"))));
+
+        AuditRules rules = AuditRules.compile("Customer", PROPERTIES, properties).forTenant("Acme");
+        assertThat(rules.isAudited(0)).isTrue();
+        assertThat(rules.excludedPaths(2)).isNull();
+
+        assertThat(ObjectFlattener.flatten(new Address("s", "c"), "address.", rules.excludedPaths(0)))
+                .containsOnlyKeys("address.street");
+        assertThat(ObjectFlattener.flatten(List.of(new Address("s1", "c1"), new Address("s2", "c2")), "addressList.",
+                rules.excludedPaths(1)))
+                .isEqualTo(Map.of("addressList.0.city", "c1", "addressList.1.city", "c2"));
+    }
+
+    @Test
+    public void testExcludedPathsMatchWholeSegments() {
+        var properties = new AuditProperties();
+        properties.getTenants().put("Acme", tenant(rules -> rules.setExcludedProperties(Set.of("Customer.address.city",
+                "Customer.addressList.*.street", "Customer.addressList.1.city"))));
+
+        AuditRules rules = AuditRules.compile("Customer", PROPERTIES, properties).forTenant("Acme");
+        assertThat(rules.excludedPaths(0)).accepts("address.city")
+                .rejects("address", "address.cit", "address.city2", "address.city.x", "addresses.city");
+        assertThat(rules.excludedPaths(1)).accepts("addressList.10.street", "addressList.1.city")
+                .rejects("addressList.10", "addressList.11.city", "addressList.1.street.x");
+
+        var oldList = List.of(new Address("s1", "c1"), new Address("s2", "c2"), new Address("s3", "c3"));
+        var newList = List.of(new Address("t1", "d1"), new Address("t2", "d2"), new Address("t3", "d3"));
+        Map<String, Object> changes = new HashMap<>();
+        StructuralDiffer.diff("addressList", oldList, newList, rules.excludedPaths(1), changes::put);
+        assertThat(changes).containsOnlyKeys("addressList.0.city", "addressList.2.city");
+    }
+
+    private static AuditProperties.TenantRules tenant(Consumer<AuditProperties.TenantRules> rules) {
+        var tenant = new AuditProperties.TenantRules();
+        rules.accept(tenant);
+        return tenant;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.AuditMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AuditSpoolTests {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testMessagesAreReadInAppendOrder() throws Exception {
+        try (var spool = open()) {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 5; i++) {
+                spool.append(message(i));
+            }
+            var first = spool.poll(3, Duration.ZERO);
+            var second = spool.poll(3, Duration.ZERO);
+
+            assertThat(ids(first)).containsExactly("0", "1", "2");
+            assertThat(ids(second)).containsExactly("3", "4");
+            assertThat(first.messages().get(0).getPayload()).asString(StandardCharsets.UTF_8)
+                    .isEqualTo("{\"value\":0}");
+            assertThat(first.appendedAt()).hasSize(3);
+            assertThat(first.appendedAt()[0]).isBetween(start, System.currentTimeMillis());
+        }
+    }
+
+    @Test
+    public void testReplayResumesFromCheckpoint() throws Exception {
+        try (var spool = open()) {
+            for (int i = 0; i < 4; i++) {
+                spool.append(message(i));
+            }
+            spool.commit(spool.poll(2, Duration.ZERO).end());
+            // read but never committed, so replayed after the restart
+            spool.poll(2, Duration.ZERO);
+        }
+        try (var spool = open()) {
+            assertThat(ids(spool.poll(10, Duration.ZERO))).containsExactly("2", "3");
+        }
+    }
+
+    @Test
+    public void testConsumedSegmentsAreDeleted() throws Exception {
+        try (var spool = open()) {
+            for (int i = 0; i < 200; i++) {
+                spool.append(message(i));
+            }
+            assertThat(segments()).hasSizeGreaterThan(2);
+
+            var batch = spool.poll(200, Duration.ZERO);
+            assertThat(ids(batch)).hasSize(200).startsWith("0").endsWith("199");
+            spool.commit(batch.end());
+
+            assertThat(segments()).hasSize(1);
+            assertThat(spool.getPendingBytes()).isZero();
+        }
+        try (var spool = open()) {
+            spool.append(message(200));
+            assertThat(ids(spool.poll(10, Duration.ZERO))).containsExactly("200");
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws Exception {
+        try (var spool = open()) {
+            spool.append(message(0));
+            spool.append(message(1));
+        }
+        Path segment = segments().get(0);
+        int secondRecord;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            secondRecord = 16 + length.flip().getInt();
+            // corrupt the payload of the second record as a crash mid-write would
+            channel.write(ByteBuffer.wrap(new byte[]{'#', '#'}), secondRecord + 10);
+        }
+        try (var spool = open()) {
+            spool.append(message(2));
+            assertThat(ids(spool.poll(10, Duration.ZERO))).containsExactly("0", "2");
+        }
+    }
+
+    @Test
+    public void testCorruptRecordOfTheLiveSegmentIsSkippedOnce() throws Exception {
+        try (var spool = open()) {
+            spool.append(message(0));
+            spool.append(message(1));
+            try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{'#', '#'}), 10);
+            }
+
+            assertThat(ids(spool.poll(10, Duration.ZERO))).isEmpty();
+            spool.append(message(2));
+            assertThat(ids(spool.poll(10, Duration.ZERO))).containsExactly("2");
+        }
+    }
+
+    @Test
+    public void testMessageLargerThanSegmentIsRejected() throws Exception {
+        try (var spool = open()) {
+            var message = message(0);
+            message.setPayload(new byte[SEGMENT_SIZE]);
+            assertThatThrownBy(() -> spool.append(message)).isInstanceOf(IOException.class);
+        }
+    }
+
+    private AuditSpool open() throws IOException {
+        return new AuditSpool(directory, SEGMENT_SIZE, false, objectMapper);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+
+    private static AuditMessage message(int id) {
+        return new AuditMessage("System", "Customer", String.valueOf(id), "customer",
+                ("{\"value\":" + id + "}").getBytes(StandardCharsets.UTF_8), "", false, "user", null);
+    }
+
+    private static List<String> ids(AuditSpool.Batch batch) {
+        return batch.messages().stream().map(AuditMessage::getEntityId).toList();
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.audit.domain.EntityInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditTransactionBufferTests {
+
+    private final EntityInfo customer = new EntityInfo("customer", "Customer", "1", "System", "user");
+    private final List<AuditTransactionBuffer.PendingAudit> emitted = new ArrayList<>();
+
+    @BeforeEach
+    void begin() {
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void end() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.unbindResourceIfPossible(AuditTransactionBuffer.class);
+    }
+
+    @Test
+    public void testUpdatesAreMergedIntoNetChange() {
+        var buffer = current();
+        buffer.update(customer, null, "1", new Object[]{"A", "x"}, new Object[]{"B", "x"}, new int[]{0});
+        assertThat(current()).isSameAs(buffer);
+        buffer.update(customer, null, "1", new Object[]{"B", "x"}, new Object[]{"C", "x"}, new int[]{0});
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(emitted).hasSize(1);
+        assertThat(emitted.get(0).getOldState()).containsExactly("A", "x");
+        assertThat(emitted.get(0).getState()).containsExactly("C", "x");
+        assertThat(emitted.get(0).getDirtyProperties()).containsExactly(0);
+    }
+
+    @Test
+    public void testDirtyPropertiesAreUnioned() {
+        var buffer = current();
+        buffer.update(customer, null, "1", new Object[]{"A", "x", 1}, new Object[]{"B", "x", 1}, new int[]{0});
+        buffer.update(customer, null, "1", new Object[]{"B", "x", 1}, new Object[]{"B", "x", 2}, new int[]{2});
+        var other = new EntityInfo("customer", "Customer", "2", "System", "user");
+        buffer.update(other, null, "2", new Object[]{"A"}, new Object[]{"B"}, new int[]{0});
+        buffer.update(other, null, "2", new Object[]{"B"}, new Object[]{"C"}, null);
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(emitted).hasSize(2);
+        assertThat(emitted.get(0).getDirtyProperties()).containsExactly(0, 2);
+        assertThat(emitted.get(1).getDirtyProperties()).isNull();
+    }
+
+    @Test
+    public void testInsertThenDeleteIsNotAudited() {
+        var buffer = current();
+        buffer.insert(customer, null, "1", new Object[]{"A"});
+        buffer.update(customer, null, "1", new Object[]{"A"}, new Object[]{"B"}, null);
+        buffer.delete(customer, null, "1", new Object[]{"B"});
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(emitted).isEmpty();
+    }
+
+    @Test
+    public void testInsertThenUpdateIsSingleCreate() {
+        var buffer = current();
+        buffer.insert(customer, null, "1", new Object[]{"A"});
+        buffer.update(customer, null, "1", new Object[]{"A"}, new Object[]{"B"}, null);
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(emitted).hasSize(1);
+        assertThat(emitted.get(0).isInserted()).isTrue();
+        assertThat(emitted.get(0).getOldState()).isNull();
+        assertThat(emitted.get(0).getState()).containsExactly("B");
+    }
+
+    @Test
+    public void testRollbackEmitsNothing() {
+        var buffer = current();
+        buffer.update(customer, null, "1", new Object[]{"A"}, new Object[]{"B"}, null);
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(emitted).isEmpty();
+        assertThat(TransactionSynchronizationManager.hasResource(AuditTransactionBuffer.class)).isFalse();
+    }
+
+    @Test
+    public void testBufferedStateIsCopied() {
+        List<String> skills = new ArrayList<>(List.of("java"));
+        var buffer = AuditTransactionBuffer.current(emitted::add, (persister, state) -> new Object[]{
+                new ArrayList<>((List<?>) state[0])});
+        buffer.update(customer, null, "1", new Object[]{List.of()}, new Object[]{skills}, null);
+        // the caller keeps working with the entity before the transaction completes
+        skills.add("sql");
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(emitted.get(0).getState()).containsExactly(List.of("java"));
+    }
+
+    private AuditTransactionBuffer current() {
+        return AuditTransactionBuffer.current(emitted::add, (persister, state) -> state.clone());
+    }
+
+    private void complete(int status) {
+        var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+}
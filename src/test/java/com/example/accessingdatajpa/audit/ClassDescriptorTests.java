@@ -0,0 +1,65 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import com.example.accessingdatajpa.Customer;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassDescriptorTests {
+
+    @SuppressWarnings("unused")
+    private static class Parent {
+        private int shared;
+        private int b;
+        private int a;
+    }
+
+    @SuppressWarnings("unused")
+    private static class Child extends Parent {
+        private int shared;
+        private int d;
+        private int c;
+    }
+
+    @Test
+    public void testClassifiesTypes() {
+        assertThat(ClassDescriptor.of(Integer.class).getKind()).isEqualTo(ClassDescriptor.Kind.LEAF);
+        assertThat(ClassDescriptor.of(String.class).getKind()).isEqualTo(ClassDescriptor.Kind.LEAF);
+        assertThat(ClassDescriptor.of(LocalDateTime.class).getKind()).isEqualTo(ClassDescriptor.Kind.LEAF);
+        assertThat(ClassDescriptor.of(Qualification.class).getKind()).isEqualTo(ClassDescriptor.Kind.ENUM);
+        assertThat(ClassDescriptor.of(HashMap.class).getKind()).isEqualTo(ClassDescriptor.Kind.MAP);
+        assertThat(ClassDescriptor.of(ArrayList.class).getKind()).isEqualTo(ClassDescriptor.Kind.COLLECTION);
+        assertThat(ClassDescriptor.of(int[].class).getKind()).isEqualTo(ClassDescriptor.Kind.ARRAY);
+        assertThat(ClassDescriptor.of(Address.class).getKind()).isEqualTo(ClassDescriptor.Kind.BEAN);
+        assertThat(ClassDescriptor.of(HashMap.class).getFields()).isEmpty();
+    }
+
+    @Test
+    public void testAuditedFieldsSkipBaseEntityFields() {
+        ClassDescriptor descriptor = ClassDescriptor.of(Customer.class);
+
+        assertThat(ClassDescriptor.of(Customer.class)).isSameAs(descriptor);
+        assertThat(descriptor.getFields()).extracting(FieldAccessor::getName).contains("uuid", "firstName");
+        assertThat(descriptor.getAuditedFields()).extracting(FieldAccessor::getName)
+                .contains("address", "firstName", "lastName")
+                .doesNotContain("uuid")
+                .isSorted();
+    }
+
+    @Test
+    public void testFieldsKeepDeclarationOrderAndAuditedFieldsAreSorted() {
+        ClassDescriptor descriptor = ClassDescriptor.of(Child.class);
+
+        assertThat(descriptor.getFields()).extracting(FieldAccessor::getName)
+                .containsExactly("shared", "d", "c", "shared", "b", "a");
+        assertThat(descriptor.getAuditedFields()).extracting(FieldAccessor::getName)
+                .containsExactly("a", "b", "c", "d", "shared", "shared");
+        // the shadowing field stays first
+        assertThat(descriptor.getAuditedFields().get(4).getField().getDeclaringClass()).isEqualTo(Child.class);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FieldAccessorTests {
+
+    @SuppressWarnings("unused")
+    private static class Sample {
+        private static final String KIND = "sample";
+        private int count;
+        private long total;
+        private double ratio;
+        private float weight;
+        private boolean active;
+        private char grade;
+        private List<String> tags;
+        private String name;
+
+        Sample(int count, long total, double ratio, boolean active, String name) {
+            this.count = count;
+            this.total = total;
+            this.ratio = ratio;
+            this.weight = (float) ratio;
+            this.active = active;
+            this.grade = 'A';
+            this.name = name;
+        }
+    }
+
+    @Test
+    public void testReadsInstanceAndStaticFields() throws Exception {
+        var sample = new Sample(3, 4L, 0.5, true, "n");
+
+        assertThat(accessor("count").get(sample)).isEqualTo(3);
+        assertThat(accessor("total").get(sample)).isEqualTo(4L);
+        assertThat(accessor("ratio").get(sample)).isEqualTo(0.5);
+        assertThat(accessor("weight").get(sample)).isEqualTo(0.5f);
+        assertThat(accessor("active").get(sample)).isEqualTo(true);
+        assertThat(accessor("grade").get(sample)).isEqualTo('A');
+        assertThat(accessor("tags").get(sample)).isNull();
+        assertThat(accessor("name").get(sample)).isEqualTo("n");
+        assertThat(accessor("KIND").get(sample)).isEqualTo("sample");
+
+        var address = new Address("s", "c");
+        assertThat(FieldAccessor.of(Address.class.getDeclaredField("city")).get(address)).isEqualTo("c");
+    }
+
+    @Test
+    public void testComparesPrimitivesLikeTheirWrappers() throws Exception {
+        var left = new Sample(3, 4L, Double.NaN, true, "n");
+        var right = new Sample(3, 5L, Double.NaN, false, "n");
+
+        assertThat(accessor("count").isEqual(left, right)).isTrue();
+        assertThat(accessor("total").isEqual(left, right)).isFalse();
+        assertThat(accessor("ratio").isEqual(left, right)).isTrue();
+        assertThat(accessor("weight").isEqual(left, right)).isTrue();
+        assertThat(accessor("active").isEqual(left, right)).isFalse();
+        assertThat(accessor("name").isEqual(left, right)).isTrue();
+
+        assertThat(accessor("ratio").isEqual(new Sample(0, 0, 0.0, true, null), new Sample(0, 0, -0.0, true, null)))
+                .isFalse();
+    }
+
+    private static FieldAccessor accessor(String name) throws NoSuchFieldException {
+        return FieldAccessor.of(Sample.class.getDeclaredField(name));
+    }
+}
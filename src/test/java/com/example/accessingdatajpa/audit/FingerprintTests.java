@@ -0,0 +1,61 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import com.example.accessingdatajpa.Customer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FingerprintTests {
+
+    @Test
+    public void testEqualContentHasEqualFingerprints() {
+        assertThat(Fingerprint.of(customer("s", List.of("Java", "Go"), Map.of("a", true, "b", false))))
+                .isEqualTo(Fingerprint.of(customer("s", List.of("Go", "Java"), Map.of("b", false, "a", true))));
+
+        Map<String, Object> inserted = new LinkedHashMap<>();
+        inserted.put("x", 1);
+        inserted.put("y", List.of("a", "b"));
+        Map<String, Object> reversed = new LinkedHashMap<>();
+        reversed.put("y", new ArrayList<>(List.of("a", "b")));
+        reversed.put("x", 1);
+        assertThat(Fingerprint.of(inserted)).isEqualTo(Fingerprint.of(reversed));
+
+        // nothing is reported between null, missing and empty values
+        assertThat(Fingerprint.of(new Address("s", null))).isEqualTo(Fingerprint.of(new Address("s", "")));
+        assertThat(Fingerprint.of(Map.of("a", List.of()))).isEqualTo(Fingerprint.of(Map.of()));
+    }
+
+    @Test
+    public void testChangesChangeTheFingerprint() {
+        long fingerprint = Fingerprint.of(customer("s", List.of("Java", "Go"), Map.of("a", true)));
+
+        assertThat(Fingerprint.of(customer("t", List.of("Java", "Go"), Map.of("a", true)))).isNotEqualTo(fingerprint);
+        assertThat(Fingerprint.of(customer("s", List.of("Java", "Rust"), Map.of("a", true)))).isNotEqualTo(fingerprint);
+        assertThat(Fingerprint.of(customer("s", List.of("Java", "Go"), Map.of("a", false)))).isNotEqualTo(fingerprint);
+        assertThat(Fingerprint.of(customer("s", List.of("Java", "Go"), Map.of("b", true)))).isNotEqualTo(fingerprint);
+
+        assertThat(Fingerprint.of(List.of("a", "b"))).isNotEqualTo(Fingerprint.of(List.of("b", "a")));
+        assertThat(Fingerprint.of(Map.of("a", "b", "b", "a"))).isNotEqualTo(Fingerprint.of(Map.of("a", "a", "b", "b")));
+        assertThat(Fingerprint.of(Map.of("n", 1))).isNotEqualTo(Fingerprint.of(Map.of("n", 1L)));
+        assertThat(Fingerprint.of(Map.of("d", new Date(1000)))).isNotEqualTo(Fingerprint.of(Map.of("d", new Date(1001))));
+    }
+
+    private static Customer customer(String street, List<String> skills, Map<String, Boolean> status) {
+        var customer = new Customer();
+        customer.setAddress(new Address(street, "c"));
+        customer.setAddressList(List.of(new Address(street, "c")));
+        customer.setSkillSet(new LinkedHashSet<>(skills));
+        customer.setStatus(new HashMap<>(status));
+        customer.setQualification(Map.of(Qualification.BS, true));
+        return customer;
+    }
+}
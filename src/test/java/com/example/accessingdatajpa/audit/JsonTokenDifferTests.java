@@ -0,0 +1,114 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class JsonTokenDifferTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testReportsChangesLikeTheObjectWalk() throws IOException {
+        Map<String, Object> oldValue = new LinkedHashMap<>();
+        oldValue.put("address", new Address("1", "2"));
+        oldValue.put("addressList", List.of(new Address("3", "4")));
+        oldValue.put("status", Map.of("status", true));
+        oldValue.put("note", "");
+        Map<String, Object> newValue = new LinkedHashMap<>();
+        newValue.put("address", new Address("11", null));
+        newValue.put("addressList", List.of(new Address("31", "4"), new Address("3", "4")));
+        newValue.put("status", Map.of("status", false));
+        newValue.put("note", List.of());
+
+        Map<String, Object> changes = diff(oldValue, newValue, null);
+
+        assertThat(changes).containsOnly(entry("value.address.street", "1->11"), entry("value.address.city", "-2"),
+                entry("value.addressList.0.street", "3->31"), entry("value.addressList.1.street", "+3"),
+                entry("value.addressList.1.city", "+4"), entry("value.status.status", "true->false"));
+        assertThat(changes).isEqualTo(StructuralDiffer.diff("value", oldValue, newValue));
+    }
+
+    @Test
+    public void testComparesSetsByElement() throws IOException {
+        Map<String, Object> oldValue = new LinkedHashMap<>();
+        oldValue.put("skillSet", Set.of("Java", "Go"));
+        oldValue.put("degrees", Map.of(Qualification.BS, Set.of(2010)));
+        oldValue.put("addresses", Set.of(new Address("1", "2")));
+        Map<String, Object> newValue = new LinkedHashMap<>();
+        newValue.put("skillSet", Set.of("Java", "Rust"));
+        newValue.put("degrees", Map.of(Qualification.BS, Set.of(2010), Qualification.MS, Set.of(2012)));
+        newValue.put("addresses", null);
+
+        Map<String, Object> changes = diff(oldValue, newValue, null);
+
+        assertThat(changes).containsOnly(
+                entry("value.skillSet", Map.of("+", List.of("Rust"), "-", List.of("Go"))),
+                entry("value.degrees.MS", Map.of("+", List.of(2012))),
+                entry("value.addresses.0.street", "-1"), entry("value.addresses.0.city", "-2"));
+        assertThat(changes).isEqualTo(StructuralDiffer.diff("value", oldValue, newValue));
+    }
+
+    @Test
+    public void testMatchesReorderedAndChangedKeysByName() throws IOException {
+        var oldJson = objectMapper.readTree("""
+                {"a":1,"b":{"c":2,"d":[1,2]},"e":"x","f":{"g":"h"}}""");
+        var newJson = objectMapper.readTree("""
+                {"a":1,"e":"x","b":{"d":[1,2,3],"c":2},"k":null,"f":"h"}""");
+
+        assertThat(diff(oldJson, newJson, null))
+                .containsOnly(entry("value.b.d.2", "+3"), entry("value.f.g", "-h"), entry("value.f", "+h"));
+    }
+
+    @Test
+    public void testSkipsExcludedPaths() throws IOException {
+        var oldValue = new HashMap<String, Object>(Map.of("a", new Address("1", "2"), "b", "x"));
+        var newValue = new HashMap<String, Object>(Map.of("a", new Address("9", "8"), "b", "y"));
+        Predicate<String> excluded = path -> path.equals("value.a.street");
+
+        assertThat(diff(oldValue, newValue, excluded))
+                .containsOnly(entry("value.a.city", "2->8"), entry("value.b", "x->y"));
+        assertThat(diff(null, newValue, path -> path.equals("value.a")))
+                .containsOnly(entry("value.b", "+y"));
+    }
+
+    @Test
+    public void testLargeMapsInAnotherOrderAreDiffedWithoutFallback() throws IOException {
+        Map<String, Object> oldValue = new HashMap<>();
+        Map<String, Object> newValue = new LinkedHashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            oldValue.put("key" + i, Map.of("value", i));
+        }
+        for (int i = 20_000 - 1; i >= 0; i--) {
+            newValue.put("key" + i, Map.of("value", i == 12_345 ? -1 : i));
+        }
+        Map<String, Object> changes = new HashMap<>();
+
+        int fallbacks = JsonTokenDiffer.diff("value", oldValue, newValue, objectMapper, null, changes::put);
+
+        assertThat(fallbacks).isZero();
+        assertThat(changes).containsOnly(entry("value.key12345.value", "12345->-1"));
+
+        newValue.put("added", "x");
+        changes.clear();
+        assertThat(JsonTokenDiffer.diff("value", oldValue, newValue, objectMapper, null, changes::put)).isEqualTo(1);
+        assertThat(changes).containsOnly(entry("value.key12345.value", "12345->-1"), entry("value.added", "+x"));
+    }
+
+    private Map<String, Object> diff(Object oldValue, Object newValue, Predicate<String> excluded) throws IOException {
+        Map<String, Object> changes = new HashMap<>();
+        JsonTokenDiffer.diff("value", oldValue, newValue, objectMapper, excluded, changes::put);
+        return changes;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.accessingdatajpa.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class OptimizedFlattenedJsonDiffUtilTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testBuildsTreeFromFlattenedKeys() throws IOException {
+        Map<String, Object> flatMap = new LinkedHashMap<>();
+        flatMap.put("name", "John");
+        flatMap.put("age", 30);
+        flatMap.put("address.zip", 10001);
+        flatMap.put("hobbies.2", "Gaming");
+        flatMap.put("hobbies.0", "Reading");
+        flatMap.put("previousAddresses.0.city", "Chicago");
+        flatMap.put("previousAddresses.0.active", true);
+        flatMap.put("previousAddresses.1.salary", 1.5);
+        flatMap.put("note", null);
+        flatMap.put("1", "root field");
+
+        assertThat(OptimizedFlattenedJsonDiffUtil.buildJsonFromFlat(flatMap)).isEqualTo(objectMapper.readTree("""
+                {"name":"John","age":30,"address":{"zip":10001},"hobbies":{"2":"Gaming","0":"Reading"},
+                 "previousAddresses":[{"city":"Chicago","active":true},{"salary":1.5}],"note":null,"1":"root field"}"""));
+    }
+
+    @Test
+    public void testLaterKeysReplaceConflictingValues() throws IOException {
+        Map<String, Object> flatMap = new LinkedHashMap<>();
+        flatMap.put("a", "plain");
+        flatMap.put("a.b", 1);
+        flatMap.put("c.d", 2);
+        flatMap.put("c.0", 3);
+
+        assertThat(OptimizedFlattenedJsonDiffUtil.buildJsonFromFlat(flatMap))
+                .isEqualTo(objectMapper.readTree("{\"a\":{\"b\":1},\"c\":{\"d\":2,\"0\":3}}"));
+    }
+
+    @Test
+    public void testOnlyNumericKeysRunningFromZeroAreIndexes() throws IOException {
+        Map<String, Object> flatMap = new LinkedHashMap<>();
+        flatMap.put("positions.48213915.qty", 5);
+        flatMap.put("positions.48213916.qty", 7);
+        flatMap.put("lots.3", "x");
+        flatMap.put("tags.1", "b");
+        flatMap.put("tags.0", "a");
+
+        assertThat(OptimizedFlattenedJsonDiffUtil.buildJsonFromFlat(flatMap)).isEqualTo(objectMapper.readTree("""
+                {"positions":{"48213915":{"qty":5},"48213916":{"qty":7}},"lots":{"3":"x"},"tags":["a","b"]}"""));
+    }
+
+    @Test
+    public void testNumericMapKeysInALargeObjectStayKeys() {
+        Map<String, Object> oldMap = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            oldMap.put("field" + i, i);
+        }
+        // ids below the key count, which alone made them look like list positions
+        oldMap.put("positions.3.qty", 5);
+        oldMap.put("positions.7.qty", 7);
+        Map<String, Object> newMap = new HashMap<>(oldMap);
+        newMap.put("positions.7.qty", 8);
+
+        assertThat(OptimizedFlattenedJsonDiffUtil.buildJsonFromFlat(oldMap).get("positions").isObject()).isTrue();
+        assertThat(OptimizedFlattenedJsonDiffUtil.getDifferences(oldMap, newMap))
+                .containsOnly(entry("positions.7.qty", 8));
+    }
+
+    @Test
+    public void testReportsChangedValuesAndReorderedArraysAsEqual() {
+        Map<String, Object> oldMap = new HashMap<>(Map.of("age", 30, "hobbies.0", "Reading", "hobbies.1", "Gaming",
+                "previousAddresses.0.city", "Los Angeles", "previousAddresses.1.city", "Chicago"));
+        Map<String, Object> newMap = new HashMap<>(Map.of("age", 31, "hobbies.0", "Gaming", "hobbies.1", "Reading",
+                "previousAddresses.0.city", "Chicago", "previousAddresses.1.city", "Los Angeles"));
+
+        assertThat(OptimizedFlattenedJsonDiffUtil.getDifferences(oldMap, newMap)).containsOnly(entry("age", 31));
+    }
+
+    @Test
+    public void testDiffsNestedAndIndexedKeys() {
+        Map<String, Object> oldMap = new HashMap<>(Map.of("address.city", "A", "addressList.0.street", "s",
+                "addressList.0.city", "c", "addressList.0.country", "US", "addressList.0.zip", 1));
+        Map<String, Object> newMap = new HashMap<>(oldMap);
+        newMap.put("address.city", "B");
+        newMap.put("addressList.0.zip", 2);
+
+        assertThat(OptimizedFlattenedJsonDiffUtil.getDifferences(oldMap, newMap))
+                .containsOnly(entry("address.city", "B"), entry("addressList.0.zip", 2));
+    }
+}
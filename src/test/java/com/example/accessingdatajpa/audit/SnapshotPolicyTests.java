@@ -0,0 +1,48 @@
+package com.example.accessingdatajpa.audit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SnapshotPolicyTests {
+
+    @Test
+    public void testSnapshotEveryVersions() {
+        var policy = policy(3, DataSize.ofMegabytes(1));
+        policy.recordSnapshot("Customer:1");
+
+        assertThat(policy.recordUpdate("Customer:1", 10)).isFalse();
+        assertThat(policy.recordUpdate("Customer:1", 10)).isFalse();
+        assertThat(policy.recordUpdate("Customer:1", 10)).isFalse();
+        assertThat(policy.recordUpdate("Customer:1", 10)).isTrue();
+        assertThat(policy.recordUpdate("Customer:1", 10)).isFalse();
+    }
+
+    @Test
+    public void testSnapshotEveryBytes() {
+        var policy = policy(100, DataSize.ofBytes(25));
+        policy.recordSnapshot("Customer:1");
+
+        assertThat(policy.recordUpdate("Customer:1", 10)).isFalse();
+        assertThat(policy.recordUpdate("Customer:1", 10)).isFalse();
+        assertThat(policy.recordUpdate("Customer:1", 10)).isTrue();
+    }
+
+    @Test
+    public void testUntrackedEntityGetsSnapshot() {
+        var policy = policy(3, DataSize.ofMegabytes(1));
+
+        assertThat(policy.recordUpdate("Customer:1", 10)).isTrue();
+        assertThat(policy.recordUpdate("Customer:1", 10)).isFalse();
+        policy.forget("Customer:1");
+        assertThat(policy.recordUpdate("Customer:1", 10)).isTrue();
+    }
+
+    private static SnapshotPolicy policy(int everyVersions, DataSize everyBytes) {
+        var properties = new AuditProperties();
+        properties.getSnapshot().setEveryVersions(everyVersions);
+        properties.getSnapshot().setEveryBytes(everyBytes);
+        return new SnapshotPolicy(properties);
+    }
+}
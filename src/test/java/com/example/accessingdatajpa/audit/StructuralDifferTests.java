@@ -0,0 +1,117 @@
+package com.example.accessingdatajpa.audit;
+
+import com.example.accessingdatajpa.Address;
+import com.example.accessingdatajpa.Customer;
+import com.google.common.collect.Maps;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.ObjectUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class StructuralDifferTests {
+
+    @Test
+    public void testReportsChangesLikeFlattenedDifference() {
+        var oldCustomer = customer("Ann", new Address("1", "2"), List.of(new Address("3", "4")),
+                Set.of("Java", "Python", "CSS"), Map.of("status", true),
+                Map.of(Qualification.BS, true, Qualification.MS, false));
+        var newCustomer = customer("Ann", new Address("11", null), List.of(new Address("31", "4"), new Address("3", "4")),
+                Set.of("Java", "Python1", "Other"), Map.of("status", false, "passed", true),
+                Map.of(Qualification.BS, true, Qualification.MS, true));
+
+        Map<String, Object> changes = StructuralDiffer.diff("customer", oldCustomer, newCustomer);
+
+        assertThat(changes)
+                .containsEntry("customer.address.street", "1->11")
+                .containsEntry("customer.address.city", "-2")
+                .containsEntry("customer.addressList.1.street", "+3")
+                .containsEntry("customer.qualification.MS", "false->true")
+                .containsEntry("customer.skillSet", Map.of("+", List.of("Other", "Python1"), "-", List.of("CSS", "Python")))
+                .doesNotContainKey("customer.firstName");
+        Map<String, Object> positional = flattenedDifference("customer", oldCustomer, newCustomer, null);
+        positional.keySet().removeIf(path -> path.startsWith("customer.skillSet."));
+        changes.remove("customer.skillSet");
+        assertThat(changes).isEqualTo(positional);
+    }
+
+    @Test
+    public void testSetsAreDiffedByElement() {
+        Set<String> oldSkills = new HashSet<>();
+        Set<String> newSkills = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            oldSkills.add("skill" + i);
+            newSkills.add("skill" + (i + 1));
+        }
+
+        assertThat(StructuralDiffer.diff("skillSet", oldSkills, newSkills))
+                .containsOnly(entry("skillSet", Map.of("+", List.of("skill1000"), "-", List.of("skill0"))));
+        assertThat(StructuralDiffer.diff("skillSet", null, Set.of(Qualification.MS)))
+                .containsOnly(entry("skillSet", Map.of("+", List.of("MS"))));
+        assertThat(StructuralDiffer.diff("skillSet", Set.of("a.b"), Set.of()))
+                .containsOnly(entry("skillSet", Map.of("-", List.of("a.b"))));
+        assertThat(StructuralDiffer.diff("ids", Set.of(5, 7), Set.of(1, 7)))
+                .containsOnly(entry("ids", Map.of("+", List.of(1), "-", List.of(5))));
+    }
+
+    @Test
+    public void testMatchesFlattenedDifferenceForMixedShapes() {
+        List<Object> oldList = new ArrayList<>();
+        oldList.add(null);
+        oldList.add("x");
+        var oldValue = new HashMap<String, Object>(Map.of("a", List.of(), "b", "text", "c", Map.of("d", 1),
+                "e", new Address("s", "c"), "f", Qualification.BS, "g", oldList));
+        var newValue = new HashMap<String, Object>(Map.of("a", "now set", "b", List.of("text"), "c", new Address("1", "2"),
+                "e", Map.of("street", "s", "city", "c2"), "f", "BS", "g", Set.of("y", "x")));
+        Predicate<String> excluded = path -> path.equals("value.c.street");
+
+        assertThat(StructuralDiffer.diff("value", oldValue, newValue))
+                .isEqualTo(flattenedDifference("value", oldValue, newValue, null));
+        Map<String, Object> changes = new HashMap<>();
+        StructuralDiffer.diff("value", oldValue, newValue, excluded, changes::put);
+        assertThat(changes).isEqualTo(flattenedDifference("value", oldValue, newValue, excluded))
+                .doesNotContainKey("value.c.street");
+    }
+
+    private static Customer customer(String firstName, Address address, List<Address> addressList, Set<String> skills,
+                                     Map<String, Boolean> status, Map<Qualification, Boolean> qualification) {
+        var customer = new Customer();
+        customer.setFirstName(firstName);
+        customer.setAddress(address);
+        customer.setAddressList(addressList);
+        customer.setSkillSet(skills);
+        customer.setStatus(status);
+        customer.setQualification(qualification);
+        return customer;
+    }
+
+    /**
+     * What update audits reported before the single-pass walk.
+     */
+    private static Map<String, Object> flattenedDifference(String name, Object oldValue, Object newValue,
+                                                           Predicate<String> excluded) {
+        var difference = Maps.difference(ObjectFlattener.flatten(oldValue, name + '.', excluded),
+                ObjectFlattener.flatten(newValue, name + '.', excluded));
+        Map<String, Object> changes = new HashMap<>();
+        difference.entriesDiffering().forEach((k, v) -> {
+            if (!ObjectUtils.isEmpty(v.leftValue()) || !ObjectUtils.isEmpty(v.rightValue())) {
+                changes.put(k, v.leftValue() + "->" + v.rightValue());
+            }
+        });
+        difference.entriesOnlyOnLeft().forEach((k, v) -> {
+            if (!ObjectUtils.isEmpty(v)) changes.put(k, "-" + v);
+        });
+        difference.entriesOnlyOnRight().forEach((k, v) -> {
+            if (!ObjectUtils.isEmpty(v)) changes.put(k, "+" + v);
+        });
+        return changes;
+    }
+}